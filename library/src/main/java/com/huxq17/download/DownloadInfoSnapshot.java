@@ -1,11 +1,28 @@
 package com.huxq17.download;
 
+import com.huxq17.download.core.DownloadDetailsInfo;
 import com.huxq17.download.core.DownloadInfo;
+import com.huxq17.download.core.PumpFile;
 
+/**
+ * Recyclable state of a download that is posted to main thread,the immutable {@link DownloadInfo}
+ * that listeners receive is created from it and then it is recycled.
+ */
 public class DownloadInfoSnapshot {
+    private static final int MAX_POOL_SIZE = 50;
     public long completedSize;
+    public long contentLength;
+    public int progress;
+    public int finished;
+    /**
+     * Speed in bytes per second.
+     */
+    public long speed;
+    public ErrorCode errorCode;
+    public PumpFile downloadFile;
     public DownloadInfo.Status status;
     public DownloadInfo downloadInfo;
+    public DownloadDetailsInfo downloadDetailsInfo;
     private static DownloadInfoSnapshot sPool;
     private static int sPoolSize = 0;
     private DownloadInfoSnapshot next;
@@ -26,12 +43,21 @@ public class DownloadInfoSnapshot {
 
     public void recycle() {
         completedSize = 0;
+        contentLength = 0;
+        progress = 0;
+        finished = 0;
+        speed = 0;
+        errorCode = null;
+        downloadFile = null;
         status = null;
         downloadInfo = null;
+        downloadDetailsInfo = null;
         synchronized (DownloadInfoSnapshot.class) {
-            next = sPool;
-            sPool = this;
-            sPoolSize++;
+            if (sPoolSize < MAX_POOL_SIZE) {
+                next = sPool;
+                sPool = this;
+                sPoolSize++;
+            }
         }
     }
 
@@ -49,4 +75,4 @@ public class DownloadInfoSnapshot {
     public static int getPoolSize() {
         return sPoolSize;
     }
-}
\ No newline at end of file
+}
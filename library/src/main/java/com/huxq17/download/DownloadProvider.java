@@ -17,6 +17,7 @@ import com.huxq17.download.config.DownloadConfigService;
 import com.huxq17.download.core.service.IDownloadConfigService;
 import com.huxq17.download.core.DownloadManager;
 import com.huxq17.download.db.DBService;
+import com.huxq17.download.db.ProgressJournal;
 import com.huxq17.download.core.service.IDownloadManager;
 import com.huxq17.download.core.service.IMessageCenter;
 import com.huxq17.download.core.MessageCenter;
@@ -41,6 +42,7 @@ public class DownloadProvider extends ContentProvider {
 
         context = getContext();
         DBService.init(context);
+        ProgressJournal.init(context);
         DownloadManager downloadManager = ReflectUtil.newInstance(DownloadManager.class);
         downloadManager.start(context);
         PumpFactory.addService(IDownloadManager.class, downloadManager);
@@ -67,6 +69,14 @@ public class DownloadProvider extends ContentProvider {
         public static final String MIME_TYPE = "mime_type";
     }
 
+    public static final class SegmentTable {
+        public static final String TABLE_NAME = "download_segment";
+        public static final String ID = "id";
+        public static final String SEGMENT_ID = "segment_id";
+        public static final String START_POSITION = "start_position";
+        public static final String END_POSITION = "end_position";
+    }
+
     public static final class CacheTable {
         public static final String TABLE_NAME = "download_cache";
         public static final String URL = "url";
@@ -37,5 +37,9 @@ public enum ErrorCode {
     /**
      * file's end is less than it's start.
      */
-    ERROR_FILE_OUT_LIMIT;
+    ERROR_FILE_OUT_LIMIT,
+    /**
+     * Checksum of download file doesn't match the expected checksum.
+     */
+    ERROR_CHECKSUM_MISMATCH;
 }
@@ -10,9 +10,11 @@ import androidx.annotation.NonNull;
 import com.huxq17.download.config.DownloadConfig;
 import com.huxq17.download.core.DownloadInfo;
 import com.huxq17.download.core.DownloadListener;
+import com.huxq17.download.core.DownloadQuery;
 import com.huxq17.download.core.DownloadRequest;
 import com.huxq17.download.core.service.IDownloadManager;
 import com.huxq17.download.core.service.IMessageCenter;
+import com.huxq17.download.core.task.RateLimiter;
 
 import java.io.File;
 import java.util.List;
@@ -188,6 +190,45 @@ public class Pump {
         PumpFactory.getService(IDownloadManager.class).resume(id);
     }
 
+    /**
+     * Change priority of a download,it takes effect immediately if the download is waiting.
+     *
+     * @param id       unique download id,default is download url.
+     * @param priority priority of download,such as {@link DownloadRequest#PRIORITY_HIGH}.
+     */
+    public static void setPriority(String id, int priority) {
+        PumpFactory.getService(IDownloadManager.class).setPriority(id, priority);
+    }
+
+    /**
+     * Limit speed of a download that is submitted.
+     *
+     * @param id             unique download id,default is download url.
+     * @param bytesPerSecond max bytes per second,0 means no limit.
+     */
+    public static void setSpeedLimit(String id, long bytesPerSecond) {
+        PumpFactory.getService(IDownloadManager.class).setSpeedLimit(id, bytesPerSecond);
+    }
+
+    /**
+     * Limit total speed of downloads with the tag.
+     *
+     * @param tag            tag of downloads.
+     * @param bytesPerSecond max bytes per second,0 means no limit.
+     */
+    public static void setTagSpeedLimit(String tag, long bytesPerSecond) {
+        RateLimiter.setTagBytesPerSecond(tag, bytesPerSecond);
+    }
+
+    /**
+     * Limit total speed of all downloads.
+     *
+     * @param bytesPerSecond max bytes per second,0 means no limit.
+     */
+    public static void setGlobalSpeedLimit(long bytesPerSecond) {
+        RateLimiter.getGlobal().setBytesPerSecond(bytesPerSecond);
+    }
+
     public static void shutdown() {
         PumpFactory.getService(IDownloadManager.class).shutdown();
     }
@@ -219,6 +260,20 @@ public class Pump {
         return PumpFactory.getService(IDownloadManager.class).getDownloadListByTag(tag);
     }
 
+    public static DownloadQuery.Builder newQueryBuilder() {
+        return DownloadQuery.newBuilder();
+    }
+
+    /**
+     * Query download list that filtered,sorted and paged by database,it doesn't load all downloads.
+     *
+     * @param downloadQuery query built by {@link #newQueryBuilder()}
+     * @return download list
+     */
+    public static List<DownloadInfo> queryDownloadList(DownloadQuery downloadQuery) {
+        return PumpFactory.getService(IDownloadManager.class).queryDownloadList(downloadQuery);
+    }
+
     /**
      * Get downloadInfo by unique download id.
      *
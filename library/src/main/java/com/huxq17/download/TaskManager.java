@@ -3,16 +3,26 @@ package com.huxq17.download;
 import android.os.Handler;
 import android.os.Looper;
 
+import com.huxq17.download.core.service.IDownloadConfigService;
 import com.huxq17.download.core.task.Task;
 
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class TaskManager {
-    private static final ExecutorService defaultThreadPool = Executors.newCachedThreadPool();
+    private static ThreadPoolExecutor defaultThreadPool;
     private static ExecutorService customThreadPool;
+    /**
+     * Run periodic work like collecting download progress, so it won't block download threads.
+     */
+    private static final ScheduledExecutorService scheduledThreadPool = Executors.newSingleThreadScheduledExecutor();
     /**
      * UI线程的handler
      */
@@ -34,6 +44,10 @@ public class TaskManager {
         mUiHandler.postDelayed(runnable, delay);
     }
 
+    public static ScheduledFuture<?> scheduleAtFixedRate(Runnable runnable, long periodMillis) {
+        return scheduledThreadPool.scheduleAtFixedRate(runnable, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
     public static Future<?> submit(Callable task) {
         return getExecutorService().submit(task);
     }
@@ -52,9 +66,32 @@ public class TaskManager {
 
     static ExecutorService getExecutorService() {
         if (customThreadPool == null) {
-            return defaultThreadPool;
+            return getDefaultThreadPool();
         }
         return customThreadPool;
     }
 
+    /**
+     * Threads are bounded by max connection number,because block tasks are started only if
+     * connection budget is available,and the tasks that are queued are run by the waiting download thread.
+     */
+    private static synchronized ExecutorService getDefaultThreadPool() {
+        int maxThreadNumber = PumpFactory.getService(IDownloadConfigService.class).getMaxConnectionNumber();
+        if (defaultThreadPool == null) {
+            defaultThreadPool = new ThreadPoolExecutor(maxThreadNumber, maxThreadNumber, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>());
+            defaultThreadPool.allowCoreThreadTimeOut(true);
+        } else if (defaultThreadPool.getMaximumPoolSize() != maxThreadNumber) {
+            //Max connection number may be changed by config.
+            if (maxThreadNumber > defaultThreadPool.getMaximumPoolSize()) {
+                defaultThreadPool.setMaximumPoolSize(maxThreadNumber);
+                defaultThreadPool.setCorePoolSize(maxThreadNumber);
+            } else {
+                defaultThreadPool.setCorePoolSize(maxThreadNumber);
+                defaultThreadPool.setMaximumPoolSize(maxThreadNumber);
+            }
+        }
+        return defaultThreadPool;
+    }
+
 }
@@ -4,6 +4,8 @@ import com.huxq17.download.PumpFactory;
 import com.huxq17.download.core.DownloadInterceptor;
 import com.huxq17.download.core.connection.DownloadConnection;
 import com.huxq17.download.core.connection.OkHttpDownloadConnection;
+import com.huxq17.download.core.policy.PrioritySchedulingPolicy;
+import com.huxq17.download.core.policy.SchedulingPolicy;
 import com.huxq17.download.core.service.IDownloadConfigService;
 import com.huxq17.download.utils.OKHttpUtil;
 
@@ -20,11 +22,59 @@ public class DownloadConfig {
      * 最小可用的内存空间
      */
     private long minUsableStorageSpace = 4 * 1024L;
+    /**
+     * 预先分配下载文件，各线程按偏移量直接写入，不再合并临时文件
+     */
+    private boolean preallocateDownloadFile;
+    /**
+     * 预分配下载时，剩余区间小于该值的两倍后不再拆分给空闲线程
+     */
+    private long minSegmentSize = 1024 * 1024L;
+    /**
+     * 合并下载进度通知的时间间隔，0表示不合并
+     */
+    private long progressCoalesceInterval;
+    /**
+     * 断点续传时重新下载已完成区间末尾的字节数，与本地数据比较以修复损坏的末尾，0表示不校验
+     */
+    private int resumeOverlapSize = 16 * 1024;
+    /**
+     * 所有下载同时打开的最大连接数，超出后下载使用更少的线程
+     */
+    private int maxConnectionNumber = 16;
+    /**
+     * 同一个host同时打开的最大连接数
+     */
+    private int maxConnectionNumberPerHost = 8;
+    /**
+     * 高优先级任务等待时，暂停优先级更低的运行中任务，被暂停的任务稍后从断点继续
+     */
+    private boolean priorityPreemption;
+    /**
+     * 选择下一个运行任务的调度策略
+     */
+    private SchedulingPolicy schedulingPolicy = new PrioritySchedulingPolicy();
+    /**
+     * 任务等待超过该时间后优先运行，避免被调度策略饿死
+     */
+    private long maxWaitingTime = 2 * 60 * 1000L;
+    /**
+     * 所有下载的总速度限制，单位字节每秒，0表示不限速
+     */
+    private long globalSpeedLimit;
+    /**
+     * 网络读取与磁盘写入分离，读取的数据先放入缓冲区，由每个存储卷的写线程合并写入
+     */
+    private boolean writePipeline;
+    /**
+     * 写入缓冲区占用的最大内存
+     */
+    private long maxWriteBufferMemory = 8 * 1024 * 1024L;
 
     private DownloadConnection.Factory connectionFactory;
     private List<DownloadInterceptor> interceptors = new ArrayList<>();
 
-    private DownloadConfig() {
+    DownloadConfig() {
     }
 
     public int getMaxRunningTaskNumber() {
@@ -35,6 +85,54 @@ public class DownloadConfig {
         return minUsableStorageSpace;
     }
 
+    public boolean isPreallocateDownloadFile() {
+        return preallocateDownloadFile;
+    }
+
+    public long getMinSegmentSize() {
+        return minSegmentSize;
+    }
+
+    public long getProgressCoalesceInterval() {
+        return progressCoalesceInterval;
+    }
+
+    public int getResumeOverlapSize() {
+        return resumeOverlapSize;
+    }
+
+    public int getMaxConnectionNumber() {
+        return maxConnectionNumber;
+    }
+
+    public int getMaxConnectionNumberPerHost() {
+        return maxConnectionNumberPerHost;
+    }
+
+    public boolean isPriorityPreemption() {
+        return priorityPreemption;
+    }
+
+    public SchedulingPolicy getSchedulingPolicy() {
+        return schedulingPolicy;
+    }
+
+    public long getMaxWaitingTime() {
+        return maxWaitingTime;
+    }
+
+    public long getGlobalSpeedLimit() {
+        return globalSpeedLimit;
+    }
+
+    public boolean isWritePipeline() {
+        return writePipeline;
+    }
+
+    public long getMaxWriteBufferMemory() {
+        return maxWriteBufferMemory;
+    }
+
     public static Builder newBuilder() {
         return new Builder();
     }
@@ -76,6 +174,135 @@ public class DownloadConfig {
             return this;
         }
 
+        /**
+         * Preallocate the download file to its content length and let every download thread write
+         * at its own offset, so no temp part files are merged after download and only 1x of the file
+         * size is needed on disk, default false.
+         *
+         * @param preallocate true to write download threads into the preallocated download file.
+         */
+        public Builder setPreallocateDownloadFile(boolean preallocate) {
+            downloadConfig.preallocateDownloadFile = preallocate;
+            return this;
+        }
+
+        /**
+         * Set the minimum segment size of preallocated download, default is 1MB and the minimum is 64KB.
+         * A download thread that finished its segment will split the largest remaining segment of other
+         * threads until the remaining size is less than double of it.
+         *
+         * @param minSegmentSize minimum segment size in bytes.
+         */
+        public Builder setMinSegmentSize(long minSegmentSize) {
+            downloadConfig.minSegmentSize = Math.max(minSegmentSize, 64 * 1024L);
+            return this;
+        }
+
+        /**
+         * Coalesce progress notifications of running downloads, only the latest progress of every
+         * download is delivered to listeners at most once per interval,status changes like finished
+         * or failed are never coalesced.Default is 0 which delivers every notification,16ms is about
+         * once per frame.
+         *
+         * @param intervalMillis interval in milliseconds.
+         */
+        public Builder setProgressCoalesceInterval(long intervalMillis) {
+            downloadConfig.progressCoalesceInterval = Math.max(intervalMillis, 0);
+            return this;
+        }
+
+        /**
+         * Set the size of bytes before the completed position that are downloaded again when resume,
+         * they are compared with the bytes on disk and only the bytes from the first different byte
+         * are written again,so a tail torn by crash doesn't break the download file.
+         * Default is 16KB,0 trusts the bytes on disk.
+         *
+         * @param overlapSize size in bytes.
+         */
+        public Builder setResumeOverlapSize(int overlapSize) {
+            downloadConfig.resumeOverlapSize = Math.max(overlapSize, 0);
+            return this;
+        }
+
+        /**
+         * Limit connections of all downloads,a download waits until its first connection is under limits
+         * and opens connections for other threads only if it's still under limits,otherwise its segments
+         * are downloaded by fewer threads.Default is 16 connections and 8 connections per host.
+         *
+         * @param maxConnectionNumber        maximum number of connections.
+         * @param maxConnectionNumberPerHost maximum number of connections to the same host.
+         */
+        public Builder setMaxConnectionNumber(int maxConnectionNumber, int maxConnectionNumberPerHost) {
+            downloadConfig.maxConnectionNumber = Math.max(maxConnectionNumber, 1);
+            downloadConfig.maxConnectionNumberPerHost = Math.max(maxConnectionNumberPerHost, 1);
+            return this;
+        }
+
+        /**
+         * Pause the running download with the lowest priority when a download with higher priority
+         * has to wait,the paused download is resumed from its breakpoint later,default false.
+         *
+         * @param preemption true to let downloads with higher priority preempt.
+         */
+        public Builder setPriorityPreemption(boolean preemption) {
+            downloadConfig.priorityPreemption = preemption;
+            return this;
+        }
+
+        /**
+         * Set the policy that chooses which waiting download runs next,default is
+         * {@link PrioritySchedulingPolicy}.Pump also provides
+         * {@link com.huxq17.download.core.policy.ShortestRemainingFirstPolicy} and
+         * {@link com.huxq17.download.core.policy.FairShareByTagPolicy}.
+         *
+         * @param schedulingPolicy scheduling policy.
+         */
+        public Builder setSchedulingPolicy(SchedulingPolicy schedulingPolicy) {
+            if (schedulingPolicy == null) {
+                throw new NullPointerException("schedulingPolicy == null");
+            }
+            downloadConfig.schedulingPolicy = schedulingPolicy;
+            return this;
+        }
+
+        /**
+         * Downloads that have waited longer than this time run first in the order they are submitted,
+         * so a scheduling policy never starves them,default is 2 minutes.
+         *
+         * @param maxWaitingTime max waiting time in milliseconds.
+         */
+        public Builder setMaxWaitingTime(long maxWaitingTime) {
+            downloadConfig.maxWaitingTime = Math.max(maxWaitingTime, 0);
+            return this;
+        }
+
+        /**
+         * Limit total speed of all downloads,default is 0 which means no limit.
+         * It only initializes the limit when the first config is built,later it is changed by
+         * {@link com.huxq17.download.Pump#setGlobalSpeedLimit(long)} at runtime.
+         *
+         * @param bytesPerSecond max bytes per second.
+         */
+        public Builder setGlobalSpeedLimit(long bytesPerSecond) {
+            downloadConfig.globalSpeedLimit = Math.max(bytesPerSecond, 0);
+            return this;
+        }
+
+        /**
+         * Read from network and write to disk on different threads,default false.Download threads read
+         * into pooled buffers,and a writer thread of every storage volume writes contiguous buffers by
+         * one call,so a slow disk like SD card doesn't slow down reading until the buffer memory is used up,
+         * then download threads write what they read by themselves instead of waiting for a buffer.
+         *
+         * @param enable               true to pipeline writes.
+         * @param maxWriteBufferMemory max memory of all buffers in bytes,default is 8MB.
+         */
+        public Builder setWritePipeline(boolean enable, long maxWriteBufferMemory) {
+            downloadConfig.writePipeline = enable;
+            downloadConfig.maxWriteBufferMemory = Math.max(maxWriteBufferMemory, 0);
+            return this;
+        }
+
         public Builder addDownloadInterceptor(DownloadInterceptor interceptor) {
             downloadConfig.interceptors.add(interceptor);
             return this;
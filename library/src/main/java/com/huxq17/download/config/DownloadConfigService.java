@@ -4,7 +4,9 @@ package com.huxq17.download.config;
 import com.huxq17.download.core.DownloadInterceptor;
 import com.huxq17.download.core.connection.DownloadConnection;
 import com.huxq17.download.core.connection.OkHttpDownloadConnection;
+import com.huxq17.download.core.policy.SchedulingPolicy;
 import com.huxq17.download.core.service.IDownloadConfigService;
+import com.huxq17.download.core.task.RateLimiter;
 import com.huxq17.download.utils.OKHttpUtil;
 
 import java.util.Collections;
@@ -19,6 +21,10 @@ public class DownloadConfigService implements IDownloadConfigService {
      * 最小可用的内存空间
      */
     private long minUsableStorageSpace = 4 * 1024L;
+    /**
+     * 未设置配置时使用的默认配置，新增配置的默认值只在DownloadConfig中定义
+     */
+    private static final DownloadConfig defaultConfig = new DownloadConfig();
     private DownloadConfig downloadConfig;
     private DownloadConnection.Factory connectionFactory;
     private List<DownloadInterceptor> interceptors;
@@ -28,9 +34,18 @@ public class DownloadConfigService implements IDownloadConfigService {
 
     @Override
     public void setConfig(DownloadConfig downloadConfig) {
+        if (this.downloadConfig == null) {
+            //Only the first config initializes the limit,so a limit changed at runtime isn't overwritten.
+            RateLimiter.getGlobal().setBytesPerSecond(downloadConfig.getGlobalSpeedLimit());
+        }
         this.downloadConfig = downloadConfig;
     }
 
+    private DownloadConfig getConfig() {
+        DownloadConfig downloadConfig = this.downloadConfig;
+        return downloadConfig == null ? defaultConfig : downloadConfig;
+    }
+
     public int getMaxRunningTaskNumber() {
         if (downloadConfig == null) {
             return maxRunningTaskNumber;
@@ -45,6 +60,60 @@ public class DownloadConfigService implements IDownloadConfigService {
         return downloadConfig.getMinUsableSpace();
     }
 
+    @Override
+    public boolean isPreallocateDownloadFile() {
+        return getConfig().isPreallocateDownloadFile();
+    }
+
+    @Override
+    public long getMinSegmentSize() {
+        return getConfig().getMinSegmentSize();
+    }
+
+    @Override
+    public long getProgressCoalesceInterval() {
+        return getConfig().getProgressCoalesceInterval();
+    }
+
+    @Override
+    public int getResumeOverlapSize() {
+        return getConfig().getResumeOverlapSize();
+    }
+
+    @Override
+    public int getMaxConnectionNumber() {
+        return getConfig().getMaxConnectionNumber();
+    }
+
+    @Override
+    public int getMaxConnectionNumberPerHost() {
+        return getConfig().getMaxConnectionNumberPerHost();
+    }
+
+    @Override
+    public boolean isPriorityPreemption() {
+        return getConfig().isPriorityPreemption();
+    }
+
+    @Override
+    public SchedulingPolicy getSchedulingPolicy() {
+        return getConfig().getSchedulingPolicy();
+    }
+
+    @Override
+    public long getMaxWaitingTime() {
+        return getConfig().getMaxWaitingTime();
+    }
+
+    @Override
+    public boolean isWritePipeline() {
+        return getConfig().isWritePipeline();
+    }
+
+    @Override
+    public long getMaxWriteBufferMemory() {
+        return getConfig().getMaxWriteBufferMemory();
+    }
 
     public List<DownloadInterceptor> getDownloadInterceptors() {
         if (downloadConfig == null) {
@@ -0,0 +1,95 @@
+package com.huxq17.download.core;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remember downloads that are finished,so checking it doesn't query database.
+ * Only finished downloads are remembered,their files are checked before they are returned,
+ * and they are removed when download restarts or is deleted.
+ */
+public class CompletionIndex {
+    private static final Completion UNFINISHED = new Completion(null);
+    private static CompletionIndex instance = new CompletionIndex();
+    private final ConcurrentHashMap<String, Completion> completions = new ConcurrentHashMap<>();
+
+    private CompletionIndex() {
+    }
+
+    public static CompletionIndex getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return completion of download,or null if it isn't known to be finished.
+     */
+    Completion get(String id) {
+        Completion completion = completions.get(id);
+        if (completion != null && !completion.getFile().exists()) {
+            //Download file is deleted outside.
+            completions.remove(id, completion);
+            return null;
+        }
+        return completion;
+    }
+
+    /**
+     * Save completion that is loaded if download is finished,it won't overwrite the completion
+     * changed meanwhile.
+     *
+     * @param downloadInfo download info that loaded,null if download doesn't exist.
+     */
+    Completion load(String id, DownloadDetailsInfo downloadInfo) {
+        Completion completion = createCompletion(downloadInfo);
+        if (!completion.isFinished()) {
+            return completion;
+        }
+        Completion lastCompletion = completions.putIfAbsent(id, completion);
+        return lastCompletion == null ? completion : lastCompletion;
+    }
+
+    /**
+     * Called after finished of download is changed.
+     */
+    public void update(DownloadDetailsInfo downloadInfo) {
+        if (downloadInfo.getFinished() == 1) {
+            Completion completion = createCompletion(downloadInfo);
+            if (completion.isFinished()) {
+                completions.put(downloadInfo.getId(), completion);
+                return;
+            }
+        }
+        completions.remove(downloadInfo.getId());
+    }
+
+    public void remove(String id) {
+        completions.remove(id);
+    }
+
+    void clear() {
+        completions.clear();
+    }
+
+    private static Completion createCompletion(DownloadDetailsInfo downloadInfo) {
+        if (downloadInfo != null && downloadInfo.isFinished()) {
+            return new Completion(downloadInfo.getDownloadFile().getFile());
+        }
+        return UNFINISHED;
+    }
+
+    static class Completion {
+        private final File file;
+
+        Completion(File file) {
+            this.file = file;
+        }
+
+        boolean isFinished() {
+            return this != UNFINISHED;
+        }
+
+        File getFile() {
+            return file;
+        }
+    }
+}
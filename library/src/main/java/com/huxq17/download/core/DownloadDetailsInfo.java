@@ -3,19 +3,22 @@ package com.huxq17.download.core;
 import android.net.Uri;
 import android.text.TextUtils;
 
+import com.huxq17.download.DownloadInfoSnapshot;
 import com.huxq17.download.DownloadProvider;
 import com.huxq17.download.ErrorCode;
+import com.huxq17.download.core.task.ChecksumVerifier;
 import com.huxq17.download.core.task.DownloadTask;
+import com.huxq17.download.core.task.Segment;
+import com.huxq17.download.db.ProgressJournal;
 import com.huxq17.download.utils.FileUtil;
 import com.huxq17.download.utils.Util;
 
 import java.io.File;
 import java.io.FilenameFilter;
 import java.lang.ref.WeakReference;
-import java.util.ArrayList;
-import java.util.List;
 
 import static com.huxq17.download.utils.Util.CONTENT_LENGTH_NOT_FOUND;
+import static com.huxq17.download.utils.Util.DOWNLOAD_BLOCK;
 import static com.huxq17.download.utils.Util.DOWNLOAD_PART;
 import static com.huxq17.download.utils.Util.TRANSFER_ENCODING_CHUNKED;
 
@@ -30,21 +33,36 @@ public class DownloadDetailsInfo {
     private long contentLength = CONTENT_LENGTH_NOT_FOUND;
     private int finished;
     protected volatile DownloadInfo.Status status;
-    private String speed;
+    /**
+     * 下载速度，单位是字节/秒
+     */
+    private long speed;
     private ErrorCode errorCode;
     private File tempDir;
-    private List<File> downloadPartFiles = new ArrayList<>();
+    private boolean isCompletedSizeLoaded;
+    /**
+     * False if completed size and progress are calculated when the first snapshot is taken.
+     */
+    private boolean isProgressCalculated = true;
     private PumpFile downloadFile;
     private DownloadTask downloadTask;
     private SpeedMonitor speedMonitor;
 
     private DownloadProvider.CacheBean cacheBean;
+    /**
+     * Verifier of current download,null if download file isn't verified.
+     */
+    private ChecksumVerifier checksumVerifier;
     private int progress;
     /**
      * True indicate that support breakpoint download.
      */
     private int threadNum;
     private boolean isForceRetry = false;
+    /**
+     * True indicate that download threads write into the preallocated download file directly.
+     */
+    private boolean preallocated;
     private DownloadRequest downloadRequest;
 
     private String transferEncoding;
@@ -69,7 +87,6 @@ public class DownloadDetailsInfo {
         if (filePath != null) {
             createDownloadFile(schemaUri, filePath);
         }
-        speedMonitor = new SpeedMonitor();
     }
 
     public void setForceRetry(boolean isForceRetry) {
@@ -80,6 +97,14 @@ public class DownloadDetailsInfo {
         return isForceRetry;
     }
 
+    public void setPreallocated(boolean preallocated) {
+        this.preallocated = preallocated;
+    }
+
+    public boolean isPreallocated() {
+        return preallocated;
+    }
+
     public void setThreadNum(int threadNum) {
         this.threadNum = threadNum;
     }
@@ -147,6 +172,14 @@ public class DownloadDetailsInfo {
         return cacheBean;
     }
 
+    public void setChecksumVerifier(ChecksumVerifier checksumVerifier) {
+        this.checksumVerifier = checksumVerifier;
+    }
+
+    public ChecksumVerifier getChecksumVerifier() {
+        return checksumVerifier;
+    }
+
     public String getMd5() {
         return md5 == null ? "" : md5;
     }
@@ -165,15 +198,19 @@ public class DownloadDetailsInfo {
 
     public void setCompletedSize(long completedSize) {
         this.completedSize = completedSize;
+        isProgressCalculated = true;
     }
 
     public void download(long length) {
         this.completedSize += length;
+        if (speedMonitor == null) {
+            speedMonitor = new SpeedMonitor();
+        }
         speedMonitor.download(length);
     }
 
     public void computeSpeed() {
-        this.speed = speedMonitor.getSpeed();
+        this.speed = speedMonitor == null ? 0 : speedMonitor.getBytesPerSecond();
     }
 
     public void setContentLength(long contentLength) {
@@ -240,19 +277,34 @@ public class DownloadDetailsInfo {
     }
 
     /**
-     * load completedSize if not finished.
+     * load completedSize if not finished,it is read from progress journal if recorded,
+     * otherwise from temp files.
      */
-    private void loadDownloadFiles() {
+    private void loadCompletedSize() {
         if (getFilePath() == null) return;
+        ProgressJournal progressJournal = ProgressJournal.getInstance();
+        long journaledSize = progressJournal == null ? -1 : progressJournal.get(id);
+        if (journaledSize >= 0) {
+            //Temp files may be cleared with cache.
+            completedSize = getTempDir().exists() ? journaledSize : 0;
+        } else {
+            loadDownloadFiles();
+        }
+    }
+
+    private void loadDownloadFiles() {
         getTempDir();
         tempDir.listFiles(new FilenameFilter() {
             @Override
             public boolean accept(File dir, String name) {
                 if (name.startsWith(DOWNLOAD_PART)) {
                     File file = new File(dir, name);
-                    downloadPartFiles.add(file);
                     completedSize += file.length();
                     return true;
+                } else if (name.startsWith(DOWNLOAD_BLOCK)) {
+                    File file = new File(dir, name);
+                    completedSize += Segment.readCompletedSize(file);
+                    return true;
                 }
                 return false;
             }
@@ -267,23 +319,84 @@ public class DownloadDetailsInfo {
             }
         } else {
             //Only load once.
-            if (downloadPartFiles.size() == 0) {
+            if (!isCompletedSizeLoaded) {
+                isCompletedSizeLoaded = true;
                 this.completedSize = 0;
-                loadDownloadFiles();
+                loadCompletedSize();
             }
-            if (this.status == null) {
+            if (this.status == null || (this.status == DownloadInfo.Status.FINISHED && downloadTask == null)) {
+                //Download file may be deleted after status is set by finished column.
                 setStatus(DownloadInfo.Status.STOPPED);
             }
         }
+        isProgressCalculated = true;
         progress = (int) (completedSize * 1f / contentLength * 100);
     }
 
+    /**
+     * Set status by finished column only,completed size and progress are calculated from files
+     * when the first snapshot is taken,so loading a download list doesn't read files of every download.
+     */
+    public void calculateDownloadProgressLazily() {
+        synchronized (this) {
+            isProgressCalculated = false;
+            if (this.status == null) {
+                setStatus(finished == 1 ? DownloadInfo.Status.FINISHED : DownloadInfo.Status.STOPPED);
+            }
+        }
+    }
+
+    private void calculateLazyProgress() {
+        boolean isStatusChanged;
+        synchronized (this) {
+            if (isProgressCalculated) {
+                return;
+            }
+            DownloadInfo.Status lastStatus = status;
+            calculateDownloadProgress();
+            isStatusChanged = status != lastStatus;
+        }
+        if (isStatusChanged) {
+            DownloadInfoManager.getInstance().updatePinned(this);
+        }
+    }
+
     public DownloadInfo snapshot() {
+        calculateLazyProgress();
         computeSpeed();
         return new DownloadInfo(url, downloadFile, tag, id, createTime, speed, completedSize, contentLength,
                 errorCode, status, finished, progress, this);
     }
 
+    /**
+     * Capture the current state into a recycled snapshot that will be delivered to listeners.
+     */
+    public DownloadInfoSnapshot obtainSnapshot() {
+        calculateLazyProgress();
+        computeSpeed();
+        DownloadInfoSnapshot snapshot = DownloadInfoSnapshot.obtain();
+        snapshot.downloadDetailsInfo = this;
+        snapshot.downloadFile = downloadFile;
+        snapshot.completedSize = completedSize;
+        snapshot.contentLength = contentLength;
+        snapshot.errorCode = errorCode;
+        snapshot.status = status;
+        snapshot.finished = finished;
+        snapshot.progress = progress;
+        snapshot.speed = speed;
+        return snapshot;
+    }
+
+    /**
+     * Create the download info that listeners receive from the recycled snapshot,the snapshot is
+     * pooled but download info is immutable,so listeners can keep it.
+     */
+    DownloadInfo createDownloadInfo(DownloadInfoSnapshot snapshot) {
+        return new DownloadInfo(url, snapshot.downloadFile, tag, id, createTime, snapshot.speed,
+                snapshot.completedSize, snapshot.contentLength, snapshot.errorCode, snapshot.status,
+                snapshot.finished, snapshot.progress, this);
+    }
+
     public PumpFile getDownloadFile() {
         return downloadFile;
     }
@@ -355,7 +468,9 @@ public class DownloadDetailsInfo {
         return wfExtraData == null ? null : wfExtraData.get();
     }
 
-    public synchronized boolean isRunning() {
+    public boolean isRunning() {
+        //status is volatile,so download threads can check it without lock.
+        DownloadInfo.Status status = this.status;
         return status != null && status.isRunning();
     }
 }
@@ -14,9 +14,11 @@ import com.huxq17.download.db.DBService;
 import com.huxq17.download.utils.LogUtil;
 import com.huxq17.download.utils.Util;
 
+import java.util.Comparator;
 import java.util.HashSet;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -24,7 +26,18 @@ import java.util.concurrent.locks.ReentrantLock;
 public class DownloadDispatcher extends Thread {
     private DownloadManager downloadManager;
     private AtomicBoolean isCanceled = new AtomicBoolean();
-    private final ConcurrentLinkedQueue<DownloadRequest> requestQueue = new ConcurrentLinkedQueue<>();
+    private final PriorityBlockingQueue<DownloadRequest> requestQueue = new PriorityBlockingQueue<>(11,
+            new Comparator<DownloadRequest>() {
+                @Override
+                public int compare(DownloadRequest o1, DownloadRequest o2) {
+                    return DownloadRequest.comparePriority(o1, o2);
+                }
+            });
+    private final AtomicLong requestSequence = new AtomicLong();
+    /**
+     * Lock of changing priority,the dispatcher thread itself isn't used because Thread locks on it internally.
+     */
+    private final Object priorityLock = new Object();
 
     private ReentrantLock lock = new ReentrantLock();
     private Condition consumer = lock.newCondition();
@@ -49,6 +62,7 @@ public class DownloadDispatcher extends Thread {
     void enqueueRequest(final DownloadRequest downloadRequest) {
         start();
         if (!requestQueue.contains(downloadRequest)) {
+            downloadRequest.setSequence(requestSequence.incrementAndGet());
             requestQueue.add(downloadRequest);
             signalConsumer();
         } else {
@@ -68,10 +82,7 @@ public class DownloadDispatcher extends Thread {
             }
         }
         if (downloadTask != null) {
-            DownloadTaskExecutor downloadTaskExecutor = downloadTask.getRequest().getDownloadExecutor();
-            if (downloadTaskExecutor == null) {
-                downloadTaskExecutor = defaultTaskExecutor;
-            }
+            DownloadTaskExecutor downloadTaskExecutor = getTaskExecutor(downloadTask);
             if (!downloadTaskExecutors.contains(downloadTaskExecutor)) {
                 downloadTaskExecutor.init();
                 downloadTaskExecutors.add(downloadTaskExecutor);
@@ -80,6 +91,39 @@ public class DownloadDispatcher extends Thread {
         }
     }
 
+    private DownloadTaskExecutor getTaskExecutor(DownloadTask downloadTask) {
+        DownloadTaskExecutor downloadTaskExecutor = downloadTask.getRequest().getDownloadExecutor();
+        return downloadTaskExecutor == null ? defaultTaskExecutor : downloadTaskExecutor;
+    }
+
+    /**
+     * Change priority of the download that is waiting in queue of dispatcher or executor.
+     */
+    void setPriority(String id, int priority) {
+        synchronized (priorityLock) {
+            for (DownloadRequest downloadRequest : requestQueue) {
+                if (downloadRequest.getId().equals(id)) {
+                    //Queue is sorted only when request is added.
+                    if (requestQueue.remove(downloadRequest)) {
+                        downloadRequest.setPriority(priority);
+                        requestQueue.add(downloadRequest);
+                        return;
+                    }
+                }
+            }
+            DownloadTask downloadTask = downloadManager.getDownloadTaskById(id);
+            if (downloadTask == null) {
+                return;
+            }
+            DownloadTaskExecutor downloadTaskExecutor = getTaskExecutor(downloadTask);
+            if (downloadTaskExecutor instanceof SimpleDownloadTaskExecutor) {
+                ((SimpleDownloadTaskExecutor) downloadTaskExecutor).setPriority(downloadTask, priority);
+            } else {
+                downloadTask.getRequest().setPriority(priority);
+            }
+        }
+    }
+
     @Override
     public void run() {
         while (isRunnable()) {
@@ -16,7 +16,15 @@ public final class DownloadInfo {
     private final long contentLength;
     private final int finished;
     private final Status status;
-    private final String speed;
+    /**
+     * Speed in bytes per second.
+     */
+    private final long speed;
+    /**
+     * Formatted speed,it is created when requested.
+     */
+    private String speedText;
+    private long speedTextValue = -1;
     private final ErrorCode errorCode;
     private final String tag;
     private final long createTime;
@@ -25,7 +33,7 @@ public final class DownloadInfo {
     private DownloadDetailsInfo downloadDetailsInfo;
 
     DownloadInfo(String url, PumpFile downloadFile, String tag, String id, long createTime,
-                 String speed, long completedSize, long contentLength, ErrorCode errorCode,
+                 long speed, long completedSize, long contentLength, ErrorCode errorCode,
                  Status status, int finished, int progress, DownloadDetailsInfo downloadDetailsInfo) {
         this.url = url;
         this.downloadFile = downloadFile;
@@ -55,6 +63,17 @@ public final class DownloadInfo {
     }
 
     public String getSpeed() {
+        if (speedText == null || speedTextValue != speed) {
+            speedText = SpeedMonitor.formatSpeed(speed);
+            speedTextValue = speed;
+        }
+        return speedText;
+    }
+
+    /**
+     * Get download speed in bytes per second.
+     */
+    public long getBytesPerSecond() {
         return speed;
     }
 
@@ -5,14 +5,27 @@ import android.net.Uri;
 
 import com.huxq17.download.DownloadProvider;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.concurrent.ConcurrentHashMap;
-
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of download info,the downloads that are unfinished or running are pinned,finished ones are
+ * evicted in LRU order when they are more than {@link #MAX_IDLE_SIZE},they will be reloaded from
+ * database when needed.
+ */
 public class DownloadInfoManager {
-    private ConcurrentHashMap<String, DownloadDetailsInfo> downloadInfoMap;
+    private static final int MAX_IDLE_SIZE = 100;
+    private final HashMap<String, DownloadDetailsInfo> pinnedInfoMap;
+    private final LinkedHashMap<String, DownloadDetailsInfo> idleInfoMap;
 
     private DownloadInfoManager() {
-        downloadInfoMap = new ConcurrentHashMap<>();
+        pinnedInfoMap = new HashMap<>();
+        idleInfoMap = new LinkedHashMap<>(16, 0.75f, true);
     }
 
     private static DownloadInfoManager instance = new DownloadInfoManager();
@@ -21,20 +34,83 @@ public class DownloadInfoManager {
         return instance;
     }
 
-    public DownloadDetailsInfo get(String id) {
-        return downloadInfoMap.get(id);
+    public synchronized DownloadDetailsInfo get(String id) {
+        DownloadDetailsInfo downloadInfo = pinnedInfoMap.get(id);
+        return downloadInfo != null ? downloadInfo : idleInfoMap.get(id);
+    }
+
+    /**
+     * Get the download info that are cached.
+     */
+    public synchronized Collection<DownloadDetailsInfo> getAll() {
+        List<DownloadDetailsInfo> downloadInfoList = new ArrayList<>(pinnedInfoMap.size() + idleInfoMap.size());
+        downloadInfoList.addAll(pinnedInfoMap.values());
+        downloadInfoList.addAll(idleInfoMap.values());
+        return downloadInfoList;
+    }
+
+    /**
+     * Get the download info that are unfinished or running,they are always cached.
+     */
+    public synchronized List<DownloadDetailsInfo> getPinned() {
+        return new ArrayList<>(pinnedInfoMap.values());
+    }
+
+    public synchronized DownloadDetailsInfo remove(String id) {
+        DownloadDetailsInfo downloadInfo = pinnedInfoMap.remove(id);
+        return downloadInfo != null ? downloadInfo : idleInfoMap.remove(id);
+    }
+
+    public synchronized void clear() {
+        pinnedInfoMap.clear();
+        idleInfoMap.clear();
+    }
+
+    private synchronized void put(String id, DownloadDetailsInfo downloadInfo) {
+        if (isPinned(downloadInfo)) {
+            pinnedInfoMap.put(id, downloadInfo);
+        } else {
+            idleInfoMap.put(id, downloadInfo);
+            trimToSize();
+        }
     }
 
-    public Collection<DownloadDetailsInfo> getAll() {
-        return downloadInfoMap.values();
+    /**
+     * Move the download between pinned and idle downloads,it is called when a task of the download
+     * is created or finished.
+     */
+    public synchronized void updatePinned(DownloadDetailsInfo downloadInfo) {
+        String id = downloadInfo.getId();
+        boolean isPinned = isPinned(downloadInfo);
+        if (isPinned && idleInfoMap.get(id) == downloadInfo) {
+            idleInfoMap.remove(id);
+            pinnedInfoMap.put(id, downloadInfo);
+        } else if (!isPinned && pinnedInfoMap.get(id) == downloadInfo) {
+            pinnedInfoMap.remove(id);
+            idleInfoMap.put(id, downloadInfo);
+            trimToSize();
+        }
     }
 
-    public DownloadDetailsInfo remove(String id) {
-        return downloadInfoMap.remove(id);
+    /**
+     * Downloads that are running or unfinished are pinned.
+     */
+    private static boolean isPinned(DownloadDetailsInfo downloadInfo) {
+        return downloadInfo.getDownloadTask() != null || downloadInfo.getStatus() != DownloadInfo.Status.FINISHED;
     }
 
-    public void clear() {
-        downloadInfoMap.clear();
+    /**
+     * Evict from the eldest,a download that is pinned again meanwhile is moved back to pinned map.
+     */
+    private void trimToSize() {
+        Iterator<Map.Entry<String, DownloadDetailsInfo>> iterator = idleInfoMap.entrySet().iterator();
+        while (idleInfoMap.size() > MAX_IDLE_SIZE && iterator.hasNext()) {
+            Map.Entry<String, DownloadDetailsInfo> eldest = iterator.next();
+            iterator.remove();
+            if (isPinned(eldest.getValue())) {
+                pinnedInfoMap.put(eldest.getKey(), eldest.getValue());
+            }
+        }
     }
 
     public DownloadDetailsInfo createDownloadInfo(String url, String filePath, String tag, String id, long createTime, Uri schemaUri) {
@@ -48,19 +124,21 @@ public class DownloadInfoManager {
         if (id == null || id.length() == 0) {
             id = url;
         }
-        DownloadDetailsInfo downloadInfo = downloadInfoMap.get(id);
-        if (downloadInfo == null) {
-            downloadInfo = new DownloadDetailsInfo(url, filePath, tag, id, createTime, schemaUri);
-            if (addInMap) {
-                downloadInfoMap.put(id, downloadInfo);
+        synchronized (this) {
+            DownloadDetailsInfo downloadInfo = get(id);
+            if (downloadInfo == null) {
+                downloadInfo = new DownloadDetailsInfo(url, filePath, tag, id, createTime, schemaUri);
+                if (addInMap) {
+                    put(id, downloadInfo);
+                }
             }
+            return downloadInfo;
         }
-        return downloadInfo;
     }
 
     public DownloadDetailsInfo createInfoByCursor(Cursor cursor) {
-        String id = cursor.getString(7);
-        DownloadDetailsInfo info = downloadInfoMap.get(id);
+        String id = cursor.getString(cursor.getColumnIndex(DownloadProvider.DownloadTable.ID));
+        DownloadDetailsInfo info = get(id);
         if (info == null) {
             String uriString = cursor.getString(cursor.getColumnIndex(DownloadProvider.DownloadTable.SCHEMA_URI));
 
@@ -73,8 +151,15 @@ public class DownloadInfoManager {
             info.setThreadNum(cursor.getInt(cursor.getColumnIndex(DownloadProvider.DownloadTable.THREAD_NUM)));
             info.setContentLength(cursor.getLong(cursor.getColumnIndex(DownloadProvider.DownloadTable.FILE_LENGTH)));
             info.setFinished(cursor.getShort(cursor.getColumnIndex(DownloadProvider.DownloadTable.FINISHED)));
-            info.calculateDownloadProgress();
-            downloadInfoMap.put(id, info);
+            info.calculateDownloadProgressLazily();
+            synchronized (this) {
+                DownloadDetailsInfo cachedInfo = get(id);
+                if (cachedInfo != null) {
+                    //Loaded by another thread meanwhile.
+                    return cachedInfo;
+                }
+                put(id, info);
+            }
         }
         return info;
     }
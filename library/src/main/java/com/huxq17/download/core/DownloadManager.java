@@ -5,26 +5,30 @@ import android.content.Context;
 import android.text.TextUtils;
 
 import com.huxq17.download.DownloadInfoSnapshot;
-import com.huxq17.download.callback.Filter;
 import com.huxq17.download.core.task.DownloadTask;
 import com.huxq17.download.db.DBService;
+import com.huxq17.download.db.ProgressJournal;
 import com.huxq17.download.core.service.IDownloadManager;
 import com.huxq17.download.utils.LogUtil;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 
 public class DownloadManager implements IDownloadManager {
     private Context context;
     private DownloadInfoManager downloadInfoManager;
+    private CompletionIndex completionIndex;
 
     private DownloadDispatcher downloadDispatcher;
-
-    private volatile boolean hasFetchDownloadList;
+    private volatile boolean hasLoadedDownloadingList;
 
     private DownloadManager() {
         downloadInfoManager = DownloadInfoManager.getInstance();
+        completionIndex = CompletionIndex.getInstance();
         downloadDispatcher = new DownloadDispatcher(this);
     }
 
@@ -70,6 +74,9 @@ public class DownloadManager implements IDownloadManager {
             downloadInfo.deleteTempDir();
             downloadInfo.deleteDownloadFile();
             DBService.getInstance().deleteInfo(downloadInfo.getId());
+            //Removed after the file and row are deleted,so it can't be loaded again meanwhile.
+            completionIndex.remove(downloadInfo.getId());
+            ProgressJournal.getInstance().remove(downloadInfo.getId());
         }
     }
 
@@ -108,6 +115,9 @@ public class DownloadManager implements IDownloadManager {
     public void resume(String id) {
         checkId(id);
         DownloadDetailsInfo transferInfo = downloadInfoManager.get(id);
+        if (transferInfo == null) {
+            transferInfo = DBService.getInstance().getDownloadInfo(id);
+        }
         if (transferInfo == null) return;
         DownloadRequest downloadRequest = transferInfo.getDownloadRequest();
         if (downloadRequest != null) {
@@ -118,57 +128,77 @@ public class DownloadManager implements IDownloadManager {
         }
     }
 
+    @Override
+    public void setPriority(String id, int priority) {
+        checkId(id);
+        downloadDispatcher.setPriority(id, priority);
+    }
+
+    @Override
+    public void setSpeedLimit(String id, long bytesPerSecond) {
+        checkId(id);
+        DownloadDetailsInfo downloadInfo = downloadInfoManager.get(id);
+        DownloadRequest downloadRequest = downloadInfo == null ? null : downloadInfo.getDownloadRequest();
+        if (downloadRequest != null) {
+            downloadRequest.getRateLimiter().setBytesPerSecond(bytesPerSecond);
+        }
+    }
+
+    /**
+     * Unfinished downloads are pinned in {@link DownloadInfoManager},they are loaded from database only once.
+     */
     @Override
     public List<DownloadInfo> getDownloadingList() {
-        return getDownloadList(new Filter<DownloadDetailsInfo>() {
+        if (!hasLoadedDownloadingList) {
+            DBService.getInstance().queryDownloadList(DownloadQuery.newBuilder().setFinished(false).build());
+            hasLoadedDownloadingList = true;
+        }
+        List<DownloadDetailsInfo> list = downloadInfoManager.getPinned();
+        Collections.sort(list, new Comparator<DownloadDetailsInfo>() {
             @Override
-            public boolean filter(DownloadDetailsInfo downloadDetailsInfo) {
-                return !downloadDetailsInfo.isFinished();
+            public int compare(DownloadDetailsInfo o1, DownloadDetailsInfo o2) {
+                long diff = o2.getCreateTime() - o1.getCreateTime();
+                return diff > 0 ? 1 : diff < 0 ? -1 : 0;
             }
         });
+        List<DownloadInfo> downloadList = new ArrayList<>(list.size());
+        for (DownloadDetailsInfo downloadDetailsInfo : list) {
+            if (downloadDetailsInfo.getStatus() != DownloadInfo.Status.FINISHED && !downloadDetailsInfo.isDeleted()) {
+                downloadList.add(downloadDetailsInfo.snapshot());
+            }
+        }
+        return downloadList;
     }
 
     @Override
     public List<DownloadInfo> getDownloadedList() {
-        return getDownloadList(new Filter<DownloadDetailsInfo>() {
-            @Override
-            public boolean filter(DownloadDetailsInfo downloadDetailsInfo) {
-                return downloadDetailsInfo.isFinished();
+        List<DownloadInfo> downloadList = queryDownloadList(DownloadQuery.newBuilder().setFinished(true).build());
+        Iterator<DownloadInfo> iterator = downloadList.iterator();
+        while (iterator.hasNext()) {
+            //The file may be deleted outside.
+            if (!iterator.next().isFinished()) {
+                iterator.remove();
             }
-        });
+        }
+        return downloadList;
     }
 
     @Override
-    public List<DownloadInfo> getDownloadListByTag(final String tag) {
-        return getDownloadList(new Filter<DownloadDetailsInfo>() {
-            @Override
-            public boolean filter(DownloadDetailsInfo downloadDetailsInfo) {
-                return downloadDetailsInfo.getTag().equals(tag);
-            }
-        });
+    public List<DownloadInfo> getDownloadListByTag(String tag) {
+        return queryDownloadList(DownloadQuery.newBuilder().setTag(tag).build());
     }
 
     @Override
     public List<DownloadInfo> getAllDownloadList() {
-        return getDownloadList(null);
-    }
-
-    private List<DownloadInfo> getDownloadList(Filter<DownloadDetailsInfo> filter) {
-        List<DownloadInfo> downloadList = new ArrayList<>();
-        if (!hasFetchDownloadList) {
-            hasFetchDownloadList = true;
-            List<DownloadDetailsInfo> list = DBService.getInstance().getDownloadList();
-            for (DownloadDetailsInfo downloadDetailsInfo : list) {
-                if (filter == null || filter.filter(downloadDetailsInfo)) {
-                    downloadList.add(downloadDetailsInfo.snapshot());
-                }
-            }
-        } else {
-            for (DownloadDetailsInfo downloadDetailsInfo : downloadInfoManager.getAll()) {
-                if (filter == null || filter.filter(downloadDetailsInfo)) {
-                    downloadList.add(downloadDetailsInfo.snapshot());
-                }
-            }
+        return queryDownloadList(DownloadQuery.newBuilder().build());
+    }
+
+    @Override
+    public List<DownloadInfo> queryDownloadList(DownloadQuery downloadQuery) {
+        List<DownloadDetailsInfo> list = DBService.getInstance().queryDownloadList(downloadQuery);
+        List<DownloadInfo> downloadList = new ArrayList<>(list.size());
+        for (DownloadDetailsInfo downloadDetailsInfo : list) {
+            downloadList.add(downloadDetailsInfo.snapshot());
         }
         return downloadList;
     }
@@ -183,8 +213,19 @@ public class DownloadManager implements IDownloadManager {
 
     @Override
     public boolean hasDownloadSucceed(String id) {
-        DownloadDetailsInfo info = DBService.getInstance().getDownloadInfo(id);
-        return info != null && info.isFinished();
+        return getCompletion(id).isFinished();
+    }
+
+    private CompletionIndex.Completion getCompletion(String id) {
+        CompletionIndex.Completion completion = completionIndex.get(id);
+        if (completion == null) {
+            DownloadDetailsInfo info = downloadInfoManager.get(id);
+            if (info == null) {
+                info = DBService.getInstance().getDownloadInfo(id);
+            }
+            completion = completionIndex.load(id, info);
+        }
+        return completion;
     }
 
     public boolean isTaskRunning(String id) {
@@ -202,19 +243,17 @@ public class DownloadManager implements IDownloadManager {
 
     @Override
     public File getFileIfSucceed(String id) {
-        if (hasDownloadSucceed(id)) {
-            DownloadDetailsInfo info = DBService.getInstance().getDownloadInfo(id);
-            return info.getDownloadFile().getFile();
-        }
-        return null;
+        CompletionIndex.Completion completion = getCompletion(id);
+        return completion.isFinished() ? completion.getFile() : null;
     }
 
     @Override
     public void shutdown() {
         downloadDispatcher.cancel();
         downloadInfoManager.clear();
+        hasLoadedDownloadingList = false;
+        completionIndex.clear();
         DownloadInfoSnapshot.release();
-        hasFetchDownloadList = false;
     }
 
     public boolean isShutdown() {
@@ -0,0 +1,143 @@
+package com.huxq17.download.core;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Query of download list that is filtered,sorted and paged by database.
+ */
+public class DownloadQuery {
+    private String tag;
+    private Boolean finished;
+    private Set<DownloadInfo.Status> statuses;
+    private boolean ascending;
+    private int limit;
+    private int offset;
+    private long afterCreateTime;
+    private String afterId;
+
+    private DownloadQuery() {
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    /**
+     * @return null if not filtered by finished.
+     */
+    public Boolean getFinished() {
+        return finished;
+    }
+
+    /**
+     * @return null if not filtered by status.
+     */
+    public Set<DownloadInfo.Status> getStatuses() {
+        return statuses == null ? null : Collections.unmodifiableSet(statuses);
+    }
+
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    /**
+     * @return max count of downloads,0 means no limit.
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return id of the download that the result starts after,null if not paged by key.
+     */
+    public String getAfterId() {
+        return afterId;
+    }
+
+    public long getAfterCreateTime() {
+        return afterCreateTime;
+    }
+
+    public static class Builder {
+        private DownloadQuery downloadQuery;
+
+        private Builder() {
+            downloadQuery = new DownloadQuery();
+        }
+
+        /**
+         * Only query downloads with the tag.
+         */
+        public Builder setTag(String tag) {
+            downloadQuery.tag = tag;
+            return this;
+        }
+
+        /**
+         * Only query the finished downloads if true,or the unfinished downloads if false.
+         */
+        public Builder setFinished(boolean finished) {
+            downloadQuery.finished = finished;
+            return this;
+        }
+
+        /**
+         * Only query downloads in these statuses.
+         */
+        public Builder setStatus(DownloadInfo.Status status, DownloadInfo.Status... statuses) {
+            downloadQuery.statuses = EnumSet.of(status, statuses);
+            return this;
+        }
+
+        /**
+         * Sort downloads by create time, default is descending.
+         */
+        public Builder orderByCreateTime(boolean ascending) {
+            downloadQuery.ascending = ascending;
+            return this;
+        }
+
+        /**
+         * Set max count of downloads,default is no limit.
+         */
+        public Builder setLimit(int limit) {
+            if (limit < 0) {
+                throw new IllegalArgumentException("limit < 0");
+            }
+            downloadQuery.limit = limit;
+            return this;
+        }
+
+        public Builder setOffset(int offset) {
+            if (offset < 0) {
+                throw new IllegalArgumentException("offset < 0");
+            }
+            downloadQuery.offset = offset;
+            return this;
+        }
+
+        /**
+         * Query the page after the download,which is the last download of previous page.
+         * It's faster than offset when there are many downloads.
+         */
+        public Builder startAfter(DownloadInfo downloadInfo) {
+            downloadQuery.afterId = downloadInfo.getId();
+            downloadQuery.afterCreateTime = downloadInfo.getCreateTime();
+            return this;
+        }
+
+        public DownloadQuery build() {
+            return downloadQuery;
+        }
+    }
+}
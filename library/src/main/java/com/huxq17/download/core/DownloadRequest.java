@@ -7,6 +7,7 @@ import android.text.TextUtils;
 import com.huxq17.download.Pump;
 import com.huxq17.download.PumpFactory;
 import com.huxq17.download.core.service.IDownloadManager;
+import com.huxq17.download.core.task.RateLimiter;
 import com.huxq17.download.utils.LogUtil;
 
 import java.io.File;
@@ -15,10 +16,17 @@ import okhttp3.Request;
 
 
 public final class DownloadRequest {
+    public static final String CHECKSUM_MD5 = "MD5";
+    public static final String CHECKSUM_SHA_256 = "SHA-256";
+    public static final String CHECKSUM_CRC32 = "CRC32";
+    public static final int PRIORITY_LOW = -10;
+    public static final int PRIORITY_NORMAL = 0;
+    public static final int PRIORITY_HIGH = 10;
     private final String id;
     private final String url;
     private String filePath;
     private final int threadNum;
+    private final boolean adaptiveThreadNum;
     private final String tag;
     private final boolean forceReDownload;
     private final int retryCount;
@@ -28,6 +36,14 @@ public final class DownloadRequest {
     private final DownloadTaskExecutor downloadTaskExecutor;
     private final boolean disableBreakPointDownload;
     private final Request.Builder httpRequestBuilder;
+    private final String checksumAlgorithm;
+    private final String checksum;
+    private volatile int priority;
+    private final RateLimiter rateLimiter;
+    /**
+     * Order of enqueue,it decides the order of downloads with the same priority.
+     */
+    private long sequence;
 
     private DownloadDetailsInfo downloadInfo;
 
@@ -39,6 +55,7 @@ public final class DownloadRequest {
         this.url = downloadGenerator.url;
         this.filePath = downloadGenerator.filePath;
         this.threadNum = downloadGenerator.threadNum;
+        this.adaptiveThreadNum = downloadGenerator.adaptiveThreadNum;
         this.tag = downloadGenerator.tag;
         this.forceReDownload = downloadGenerator.forceReDownload;
         this.retryCount = downloadGenerator.retryCount;
@@ -51,6 +68,10 @@ public final class DownloadRequest {
             httpRequestBuilder.url(url);
         }
         this.uri = downloadGenerator.uri;
+        this.checksumAlgorithm = downloadGenerator.checksumAlgorithm;
+        this.checksum = downloadGenerator.checksum;
+        this.priority = downloadGenerator.priority;
+        this.rateLimiter = new RateLimiter(downloadGenerator.speedLimit);
     }
 
     public Uri getUri() {
@@ -93,6 +114,10 @@ public final class DownloadRequest {
         return Math.max(threadNum, 1);
     }
 
+    public boolean isAdaptiveThreadNum() {
+        return adaptiveThreadNum;
+    }
+
     public String getTag() {
         if (downloadTaskExecutor != null) {
             String tag = downloadTaskExecutor.getTag();
@@ -116,6 +141,53 @@ public final class DownloadRequest {
         return downloadTaskExecutor;
     }
 
+    /**
+     * @return algorithm of checksum that download file is verified by,null if it isn't verified.
+     */
+    public String getChecksumAlgorithm() {
+        return checksumAlgorithm;
+    }
+
+    /**
+     * @return the expected checksum,null if it is the Content-MD5 that server returned.
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * @return limiter of download speed of this request.
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * Order requests by priority from high to low,and then by the order of enqueue.
+     */
+    public static int comparePriority(DownloadRequest request1, DownloadRequest request2) {
+        if (request1.priority != request2.priority) {
+            return request1.priority > request2.priority ? -1 : 1;
+        }
+        return request1.sequence < request2.sequence ? -1 : (request1.sequence == request2.sequence ? 0 : 1);
+    }
+
     public Request.Builder getHttpRequestBuilder() {
         if (httpRequestBuilder == null) {
             return new Request.Builder().url(url).build().newBuilder();
@@ -132,6 +204,7 @@ public final class DownloadRequest {
         private String url;
         private String filePath;
         private int threadNum;
+        private boolean adaptiveThreadNum;
         private String tag;
         private boolean forceReDownload;
         private int retryCount;
@@ -143,6 +216,10 @@ public final class DownloadRequest {
         private boolean disableBreakPointDownload;
         private Request.Builder httpRequestBuilder;
         private final Uri uri;
+        private String checksumAlgorithm;
+        private String checksum;
+        private int priority = PRIORITY_NORMAL;
+        private long speedLimit;
 
         public DownloadGenerator(String url, String filePath, Uri uri) {
             this.url = url;
@@ -161,6 +238,19 @@ public final class DownloadRequest {
 
         public DownloadGenerator threadNum(int threadNum) {
             this.threadNum = threadNum;
+            this.adaptiveThreadNum = false;
+            return this;
+        }
+
+        /**
+         * Start download with one or two threads,and add threads while the download speed keeps rising.
+         * Small file is downloaded by one thread.
+         *
+         * @param maxThreadNum the maximum number of download threads.
+         */
+        public DownloadGenerator adaptiveThreadNum(int maxThreadNum) {
+            this.threadNum = maxThreadNum;
+            this.adaptiveThreadNum = true;
             return this;
         }
 
@@ -194,6 +284,7 @@ public final class DownloadRequest {
         public DownloadGenerator disableBreakPointDownload() {
             this.disableBreakPointDownload = true;
             threadNum = 1;
+            adaptiveThreadNum = false;
             return this;
         }
 
@@ -234,6 +325,50 @@ public final class DownloadRequest {
             return this;
         }
 
+        /**
+         * Verify the download file by checksum,download fails with {@link com.huxq17.download.ErrorCode#ERROR_CHECKSUM_MISMATCH}
+         * if it doesn't match.CRC32 is hashed while bytes are downloaded and CRC32 of segments is combined,
+         * so a CRC32 download only reads back the bytes that were downloaded before resume.
+         * MD5,SHA-256 and other digests can't be combined,so they aren't hashed while downloading,
+         * the whole file is read once more after it is merged to verify it.
+         *
+         * @param algorithm {@link DownloadRequest#CHECKSUM_CRC32},{@link DownloadRequest#CHECKSUM_MD5},
+         *                  {@link DownloadRequest#CHECKSUM_SHA_256} or other algorithm of MessageDigest.
+         *                  Use CRC32 to avoid reading the file again.
+         * @param checksum  hex or base64 of expected checksum.If it is null,verify by the Content-MD5
+         *                  that server returns and algorithm must be MD5.
+         */
+        public DownloadGenerator setChecksum(String algorithm, String checksum) {
+            if (checksum == null && !CHECKSUM_MD5.equalsIgnoreCase(algorithm)) {
+                throw new IllegalArgumentException("checksum is null but algorithm isn't MD5.");
+            }
+            this.checksumAlgorithm = algorithm;
+            this.checksum = checksum;
+            return this;
+        }
+
+        /**
+         * Set priority of download,download with higher priority runs first when downloads are
+         * waiting for executor,default is {@link DownloadRequest#PRIORITY_NORMAL}.
+         * It can be changed by {@link Pump#setPriority(String, int)} while download is waiting.
+         *
+         * @param priority priority of download,such as {@link DownloadRequest#PRIORITY_HIGH}.
+         */
+        public DownloadGenerator priority(int priority) {
+            this.priority = priority;
+            return this;
+        }
+
+        /**
+         * Limit download speed of this download,it can be changed by {@link Pump#setSpeedLimit(String, long)}.
+         *
+         * @param bytesPerSecond max bytes per second,0 means no limit.
+         */
+        public DownloadGenerator speedLimit(long bytesPerSecond) {
+            this.speedLimit = bytesPerSecond;
+            return this;
+        }
+
         public DownloadGenerator setDownloadTaskExecutor(DownloadTaskExecutor downloadTaskExecutor) {
             this.downloadTaskExecutor = downloadTaskExecutor;
             return this;
@@ -7,23 +7,46 @@ import android.os.Message;
 
 import androidx.annotation.NonNull;
 
+import com.huxq17.download.DownloadInfoSnapshot;
 import com.huxq17.download.PumpFactory;
+import com.huxq17.download.core.service.IDownloadConfigService;
 import com.huxq17.download.core.service.IDownloadManager;
 import com.huxq17.download.core.service.IMessageCenter;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class MessageCenter implements IMessageCenter {
+    private static final int MSG_SNAPSHOT = 0;
+    private static final int MSG_FLUSH_SNAPSHOTS = 1;
     private Context context;
+    /**
+     * Listeners that don't bind to a download,every snapshot is offered to them.
+     */
     private final ConcurrentLinkedQueue<DownloadListener> observers = new ConcurrentLinkedQueue<>();
+    /**
+     * Listeners that bind to a download, keyed by download id,they only receive snapshots of their download.
+     */
+    private final ConcurrentHashMap<String, ConcurrentLinkedQueue<DownloadListener>> idObservers = new ConcurrentHashMap<>();
+    /**
+     * The latest snapshot of running downloads that waiting to be delivered, keyed by download id.
+     */
+    private final Map<String, DownloadInfoSnapshot> pendingSnapshots = new LinkedHashMap<>();
+    private final List<DownloadInfoSnapshot> flushingSnapshots = new ArrayList<>();
+    private boolean isFlushScheduled;
     private Handler handler = new Handler(Looper.getMainLooper()) {
         @Override
         public void handleMessage(@NonNull Message msg) {
-            if (isShutdown()) {
-                return;
+            if (msg.what == MSG_FLUSH_SNAPSHOTS) {
+                flushPendingSnapshots();
+            } else {
+                dispatchSnapshot((DownloadInfoSnapshot) msg.obj);
             }
-            handleDownloadInfoSnapshot(getObserverIterator(), (DownloadInfo) msg.obj);
         }
     };
 
@@ -32,8 +55,42 @@ public class MessageCenter implements IMessageCenter {
         this.context = context;
     }
 
+    /**
+     * Iterate over all the listeners, add for test.
+     */
     Iterator<DownloadListener> getObserverIterator() {
-        return observers.iterator();
+        List<DownloadListener> allObservers = new ArrayList<>(observers);
+        for (ConcurrentLinkedQueue<DownloadListener> listeners : idObservers.values()) {
+            allObservers.addAll(listeners);
+        }
+        return allObservers.iterator();
+    }
+
+    /**
+     * Create download info from the recycled snapshot and deliver it.
+     */
+    void dispatchSnapshot(DownloadInfoSnapshot snapshot) {
+        if (isShutdown()) {
+            snapshot.recycle();
+            return;
+        }
+        DownloadInfo downloadInfo = snapshot.downloadDetailsInfo.createDownloadInfo(snapshot);
+        snapshot.recycle();
+        handleDownloadInfoSnapshot(downloadInfo);
+    }
+
+    /**
+     * Deliver snapshot to the listeners of its download and the global listeners.
+     */
+    void handleDownloadInfoSnapshot(DownloadInfo snapshot) {
+        String id = snapshot.getId();
+        if (id != null) {
+            ConcurrentLinkedQueue<DownloadListener> listeners = idObservers.get(id);
+            if (listeners != null) {
+                handleDownloadInfoSnapshot(listeners.iterator(), snapshot);
+            }
+        }
+        handleDownloadInfoSnapshot(observers.iterator(), snapshot);
     }
 
     void handleDownloadInfoSnapshot(Iterator<DownloadListener> iterator, DownloadInfo snapshot) {
@@ -53,42 +110,79 @@ public class MessageCenter implements IMessageCenter {
         return PumpFactory.getService(IDownloadManager.class).isShutdown();
     }
 
+    long getCoalesceInterval() {
+        IDownloadConfigService configService = PumpFactory.getService(IDownloadConfigService.class);
+        return configService == null ? 0 : configService.getProgressCoalesceInterval();
+    }
+
+    void flushPendingSnapshots() {
+        synchronized (pendingSnapshots) {
+            flushingSnapshots.addAll(pendingSnapshots.values());
+            pendingSnapshots.clear();
+            isFlushScheduled = false;
+        }
+        for (int i = 0; i < flushingSnapshots.size(); i++) {
+            dispatchSnapshot(flushingSnapshots.get(i));
+        }
+        flushingSnapshots.clear();
+    }
+
     @Override
     public void notifyProgressChanged(DownloadDetailsInfo downloadInfo) {
         if (isShutdown()) {
             return;
         }
+        DownloadInfoSnapshot snapshot = downloadInfo.obtainSnapshot();
+        long coalesceInterval = getCoalesceInterval();
+        if (coalesceInterval > 0) {
+            synchronized (pendingSnapshots) {
+                DownloadInfoSnapshot pendingSnapshot;
+                if (snapshot.status == DownloadInfo.Status.RUNNING) {
+                    pendingSnapshot = pendingSnapshots.put(downloadInfo.getId(), snapshot);
+                    if (pendingSnapshot != null) {
+                        pendingSnapshot.recycle();
+                    }
+                    if (!isFlushScheduled) {
+                        isFlushScheduled = true;
+                        handler.sendEmptyMessageDelayed(MSG_FLUSH_SNAPSHOTS, coalesceInterval);
+                    }
+                    return;
+                }
+                //Status change is delivered immediately, the pending progress is out of date.
+                pendingSnapshot = pendingSnapshots.remove(downloadInfo.getId());
+                if (pendingSnapshot != null) {
+                    pendingSnapshot.recycle();
+                }
+            }
+        }
         Message message = Message.obtain();
-        message.obj = downloadInfo.snapshot();
-//        DownloadInfoSnapshot snapshot = DownloadInfoSnapshot.obtain();
-//        message.obj = snapshot;
-//        snapshot.downloadInfo = downloadInfo;
-//        snapshot.completedSize = downloadInfo.getCompletedSize();
-//        snapshot.status = downloadInfo.getStatus();
-
-//        long completedSize = downloadInfo.getCompletedSize();
-//        //用arg1存高32位的long值
-//        message.arg1 = (int) ((completedSize & 0xffffffff00000000L) >> 32);
-//        //用arg2存低32位的long值
-//        message.arg2 = (int) (completedSize & 0x00000000ffffffffL);
+        message.what = MSG_SNAPSHOT;
+        message.obj = snapshot;
         handler.sendMessage(message);
-//        context.getContentResolver().notifyChange(CONTENT_URI, null);
     }
 
     @Override
     public synchronized void register(DownloadListener downloadListener) {
         downloadListener.setEnable(true);
-        observers.add(downloadListener);
+        String id = downloadListener.getId();
+        if (id == null) {
+            observers.add(downloadListener);
+            return;
+        }
+        ConcurrentLinkedQueue<DownloadListener> listeners = idObservers.get(id);
+        if (listeners == null) {
+            listeners = new ConcurrentLinkedQueue<>();
+            idObservers.put(id, listeners);
+        }
+        listeners.add(downloadListener);
     }
 
     @Override
     public synchronized void unRegister(String id) {
-        Iterator<DownloadListener> iterator = observers.iterator();
-        while (iterator.hasNext()) {
-            DownloadListener downloadListener = iterator.next();
-            if (id.equals(downloadListener.getId())) {
+        ConcurrentLinkedQueue<DownloadListener> listeners = idObservers.remove(id);
+        if (listeners != null) {
+            for (DownloadListener downloadListener : listeners) {
                 downloadListener.setEnable(false);
-                iterator.remove();
             }
         }
     }
@@ -96,7 +190,18 @@ public class MessageCenter implements IMessageCenter {
     @Override
     public synchronized void unRegister(DownloadListener downloadListener) {
         downloadListener.setEnable(false);
-        observers.remove(downloadListener);
+        String id = downloadListener.getId();
+        if (id == null) {
+            observers.remove(downloadListener);
+            return;
+        }
+        ConcurrentLinkedQueue<DownloadListener> listeners = idObservers.get(id);
+        if (listeners != null) {
+            listeners.remove(downloadListener);
+            if (listeners.isEmpty()) {
+                idObservers.remove(id);
+            }
+        }
     }
 
     /**
@@ -114,6 +219,10 @@ public class MessageCenter implements IMessageCenter {
     }
 
     int getObserverSize() {
-        return observers.size();
+        int size = observers.size();
+        for (ConcurrentLinkedQueue<DownloadListener> listeners : idObservers.values()) {
+            size += listeners.size();
+        }
+        return size;
     }
 }
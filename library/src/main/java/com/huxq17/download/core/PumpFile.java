@@ -6,6 +6,8 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.provider.MediaStore;
 
 import androidx.annotation.RequiresApi;
@@ -15,10 +17,15 @@ import com.huxq17.download.utils.FileUtil;
 import com.huxq17.download.utils.Util;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 import okio.BufferedSink;
 import okio.BufferedSource;
@@ -27,12 +34,24 @@ import okio.Okio;
 import static com.huxq17.download.utils.Util.closeQuietly;
 
 public class PumpFile {
+    /**
+     * Metadata queried from MediaStore is trusted in this time,it may be changed by other apps.
+     */
+    private static final long METADATA_STALE_TIME = 5000;
     private File file;
     private String filePath;
     private String pathAboveQ;
     private final ContentResolver contentResolver;
     private Uri contentUri;
     private final Uri schemaUri;
+    /**
+     * Size of file in MediaStore,it is updated by the writes of this file.
+     */
+    private long mediaLength;
+    /**
+     * Time of querying metadata from MediaStore,0 means metadata should be queried.
+     */
+    private long metadataTime;
 
     public PumpFile(String filePath, Uri schemaUri) {
         this.file = new File(filePath);
@@ -41,14 +60,15 @@ public class PumpFile {
         contentResolver = DownloadProvider.context.getContentResolver();
     }
 
-    public void setPath(String filePath) {
+    public synchronized void setPath(String filePath) {
         this.file = new File(filePath);
         this.filePath = filePath;
+        metadataTime = 0;
     }
 
-    public File getFile() {
-        if (getSchemaUri() != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-            queryFileContentUri();
+    public synchronized File getFile() {
+        if (shouldUseUri()) {
+            ensureMetadata();
             if (pathAboveQ == null) {
                 return null;
             } else {
@@ -83,48 +103,20 @@ public class PumpFile {
         return contentUri;
     }
 
-    public String getRealPath() {
+    public synchronized String getRealPath() {
         if (shouldUseUri()) {
-            queryFileContentUri();
+            ensureMetadata();
             return pathAboveQ;
         } else {
             return filePath;
         }
     }
 
-    public long length() {
-        long length = 0;
+    public synchronized long length() {
+        long length;
         if (shouldUseUri()) {
-            if (contentUri != null) {
-                Cursor cursor = contentResolver.query(getQueryUri(contentUri),
-                        new String[]{MediaStore.MediaColumns.SIZE, MediaStore.MediaColumns.DATA},
-                        buildQueryBundle(null, null), null);
-                if (cursor != null && cursor.moveToFirst()) {
-                    length = cursor.getLong(cursor.getColumnIndex(MediaStore.MediaColumns.SIZE));
-                    pathAboveQ = cursor.getString(cursor.getColumnIndex(MediaStore.MediaColumns.DATA));
-                }
-                Util.closeQuietly(cursor);
-            } else {
-                String queryPathKey = MediaStore.MediaColumns.RELATIVE_PATH;
-                String selection = queryPathKey + "=? and " + MediaStore.MediaColumns.DISPLAY_NAME + "=?";
-                String relativePath = file.getParent();
-                if (relativePath == null) {
-                    throw new IllegalArgumentException("relativePath is null.");
-                }
-                if (!relativePath.endsWith(File.separator)) {
-                    relativePath = relativePath + File.separator;
-                }
-                Cursor cursor = contentResolver.query(getQueryUri(schemaUri),
-                        new String[]{MediaStore.MediaColumns._ID, MediaStore.MediaColumns.SIZE, MediaStore.MediaColumns.DATA},
-                        buildQueryBundle(selection, new String[]{relativePath, file.getName()}),
-                        null);
-                if (cursor != null && cursor.moveToFirst()) {
-                    length = cursor.getLong(cursor.getColumnIndex(MediaStore.MediaColumns.SIZE));
-                    pathAboveQ = cursor.getString(cursor.getColumnIndex(MediaStore.MediaColumns.DATA));
-                    contentUri = Uri.withAppendedPath(schemaUri, "" + cursor.getInt(cursor.getColumnIndex(MediaStore.MediaColumns._ID)));
-                }
-                Util.closeQuietly(cursor);
-            }
+            ensureMetadata();
+            length = mediaLength;
         } else {
             length = file.length();
         }
@@ -138,7 +130,7 @@ public class PumpFile {
         return createNewFile(false);
     }
 
-    public boolean createNewFile(boolean isPending) {
+    public synchronized boolean createNewFile(boolean isPending) {
         if (shouldUseUri()) {
             ContentValues contentValues = new ContentValues();
             contentValues.put(MediaStore.Files.FileColumns.DISPLAY_NAME, file.getName());
@@ -167,6 +159,8 @@ public class PumpFile {
                     }
                 }
                 Util.closeQuietly(cursor);
+                mediaLength = 0;
+                metadataTime = SystemClock.elapsedRealtime();
             }
             return contentUri != null;
         } else {
@@ -174,81 +168,190 @@ public class PumpFile {
         }
     }
 
-    public boolean exists() {
+    public synchronized boolean exists() {
         if (shouldUseUri()) {
-            contentUri = null;
-            queryFileContentUri();
+            ensureMetadata();
             return contentUri != null;
         } else {
             return file.exists();
         }
     }
 
-    public boolean delete() {
+    public synchronized boolean delete() {
         if (shouldUseUri()) {
             int result;
-            String queryPathKey = MediaStore.MediaColumns.RELATIVE_PATH;
-            String selection = queryPathKey + "=? and " + MediaStore.MediaColumns.DISPLAY_NAME + "=?";
-            String relativePath = file.getParent();
-            if (relativePath == null) {
-                throw new IllegalArgumentException("relativePath is null.");
-            }
-            if (!relativePath.endsWith(File.separator)) {
-                relativePath = relativePath + File.separator;
-            }
-            String[] selectionArgs = new String[]{relativePath, file.getName()};
+            String selection = MediaStore.MediaColumns.RELATIVE_PATH + "=? and " + MediaStore.MediaColumns.DISPLAY_NAME + "=?";
+            String[] selectionArgs = new String[]{getRelativePath(), file.getName()};
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
                 result = DownloadProvider.context.getContentResolver().delete(schemaUri, buildQueryBundle(selection, selectionArgs));
             } else {
                 result = DownloadProvider.context.getContentResolver().delete(getQueryUri(schemaUri), selection, selectionArgs);
             }
             contentUri = null;
+            pathAboveQ = null;
+            mediaLength = 0;
+            metadataTime = SystemClock.elapsedRealtime();
             return result == 1;
         }
         return FileUtil.deleteFile(file);
     }
 
+    /**
+     * Sort part files by the id at the end of their names,then write them into this file.
+     * Part files must be named by ids from 0 to their count,use {@link #mergeSortedFiles(File[])}
+     * if they are sorted already.
+     */
     public boolean mergeFiles(File[] sources) {
-        File[] sortedFiles = new File[sources.length];
-        for (File partFile : sources) {
-            String partFileName = partFile.getName();
-            int idIndex = partFileName.lastIndexOf("-") + 1;
-            int id = Integer.parseInt(partFileName.substring(idIndex));
-            if (id < sortedFiles.length) {
-                sortedFiles[id] = partFile;
-            } else {
-                return false;
-            }
-        }
+        File[] sortedFiles = FileUtil.sortPartFiles(sources);
+        return sortedFiles != null && mergeSortedFiles(sortedFiles);
+    }
 
-        BufferedSink bufferedSink = null;
+    /**
+     * Write part files into this file in the given order,they are transferred by file channel without
+     * copying into java buffers.
+     *
+     * @param sortedFiles part files sorted by their positions in this file.
+     */
+    public boolean mergeSortedFiles(File[] sortedFiles) {
+        FileChannel channel = null;
         try {
-            OutputStream outputStream = getOutputStream();
-            if (outputStream == null) return false;
-            bufferedSink = Okio.buffer(Okio.sink(outputStream));
+            channel = openOutputChannel();
+            if (channel == null) return false;
+            long length = 0;
             for (File source : sortedFiles) {
-                if (!appendFile(source, bufferedSink)) {
+                if (!transferFile(source, channel)) {
+                    invalidate();
                     return false;
                 }
+                length += source.length();
             }
+            setMediaLength(length);
             return true;
-        } catch (FileNotFoundException e) {
+        } catch (IOException e) {
             e.printStackTrace();
+            invalidate();
         } finally {
-            closeQuietly(bufferedSink);
-            if (contentUri != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-                ContentValues contentValues = new ContentValues();
-                contentValues.put(MediaStore.Downloads.IS_PENDING, 0);
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
-                    contentResolver.update(contentUri, contentValues, buildQueryBundle(null, null));
-                } else {
-                    contentResolver.update(getQueryUri(contentUri), contentValues, null, null);
+            closeQuietly(channel);
+            clearPending();
+        }
+        return false;
+    }
+
+    /**
+     * Open a channel that writes this file from the beginning,the file is truncated.
+     */
+    private FileChannel openOutputChannel() throws IOException {
+        if (!exists() && !createNewFile()) {
+            return null;
+        }
+        if (shouldUseUri()) {
+            Uri contentUri;
+            synchronized (this) {
+                contentUri = this.contentUri;
+            }
+            if (contentUri == null) {
+                return null;
+            }
+            ParcelFileDescriptor fileDescriptor = contentResolver.openFileDescriptor(contentUri, "rwt");
+            if (fileDescriptor == null) {
+                return null;
+            }
+            return new ParcelFileDescriptor.AutoCloseOutputStream(fileDescriptor).getChannel();
+        } else {
+            return new FileOutputStream(file).getChannel();
+        }
+    }
+
+    private static boolean transferFile(File sourceFile, FileChannel target) {
+        FileChannel source = null;
+        try {
+            source = new FileInputStream(sourceFile).getChannel();
+            long size = source.size();
+            long position = 0;
+            while (position < size) {
+                long count = source.transferTo(position, size - position, target);
+                if (count <= 0) {
+                    return false;
                 }
+                position += count;
             }
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            closeQuietly(source);
         }
         return false;
     }
 
+    /**
+     * Make the file visible to other apps if it was created as pending.
+     */
+    public void clearPending() {
+        if (contentUri != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            ContentValues contentValues = new ContentValues();
+            contentValues.put(MediaStore.Downloads.IS_PENDING, 0);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                contentResolver.update(contentUri, contentValues, buildQueryBundle(null, null));
+            } else {
+                contentResolver.update(getQueryUri(contentUri), contentValues, null, null);
+            }
+        }
+    }
+
+    /**
+     * Open a channel that can write at any position of this file, and make sure the file's
+     * length is equal to the given length.Closing the channel will release the file.
+     * The length is set without writing the bytes,it is a sparse file on most file systems,
+     * so caller should check usable space against the length before opening it.
+     *
+     * @param length the length of the file.
+     */
+    public FileChannel openChannel(long length) throws IOException {
+        FileChannel channel;
+        RandomAccessFile randomAccessFile = null;
+        if (shouldUseUri()) {
+            Uri contentUri;
+            synchronized (this) {
+                if (this.contentUri == null) {
+                    invalidate();
+                }
+                ensureMetadata();
+                contentUri = this.contentUri;
+            }
+            if (contentUri == null) {
+                throw new FileNotFoundException("Can't find " + filePath + " in " + schemaUri);
+            }
+            ParcelFileDescriptor fileDescriptor = contentResolver.openFileDescriptor(contentUri, "rw");
+            if (fileDescriptor == null) {
+                throw new FileNotFoundException("Can't open " + contentUri);
+            }
+            channel = new ParcelFileDescriptor.AutoCloseOutputStream(fileDescriptor).getChannel();
+        } else {
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            channel = randomAccessFile.getChannel();
+        }
+        try {
+            long size = channel.size();
+            if (randomAccessFile != null) {
+                if (size != length) {
+                    randomAccessFile.setLength(length);
+                }
+            } else if (size > length) {
+                channel.truncate(length);
+            } else if (size < length) {
+                //Channel of MediaStore file can't set length,so the last byte is written to extend it.
+                channel.write(ByteBuffer.wrap(new byte[1]), length - 1);
+            }
+        } catch (IOException e) {
+            closeQuietly(channel);
+            invalidate();
+            throw e;
+        }
+        setMediaLength(length);
+        return channel;
+    }
+
     public boolean appendFile(File sourceFile, BufferedSink bufferedSink) {
         if (bufferedSink == null) {
             return false;
@@ -274,6 +377,23 @@ public class PumpFile {
         return false;
     }
 
+    /**
+     * Open input stream of this file.
+     *
+     * @return input stream, or null if the file can't be found.
+     */
+    public InputStream openInputStream() throws FileNotFoundException {
+        if (shouldUseUri()) {
+            Uri contentUri;
+            synchronized (this) {
+                ensureMetadata();
+                contentUri = this.contentUri;
+            }
+            return contentUri == null ? null : contentResolver.openInputStream(contentUri);
+        }
+        return new FileInputStream(getFile());
+    }
+
     public OutputStream getOutputStream() throws FileNotFoundException {
         if (!exists() && !createNewFile()) {
             return null;
@@ -288,11 +408,58 @@ public class PumpFile {
         }
     }
 
+    /**
+     * Query metadata from MediaStore again when it is used next time.
+     */
+    public synchronized void invalidate() {
+        metadataTime = 0;
+    }
+
+    private synchronized void setMediaLength(long length) {
+        if (shouldUseUri()) {
+            mediaLength = length;
+        }
+    }
+
+    private void ensureMetadata() {
+        if (metadataTime == 0 || SystemClock.elapsedRealtime() - metadataTime > METADATA_STALE_TIME) {
+            queryMetadata();
+        }
+    }
+
+    /**
+     * Query content uri,size and data path of this file in one query.
+     */
     @RequiresApi(api = Build.VERSION_CODES.Q)
-    private void queryFileContentUri() {
-        Integer fileMediaStoreId = null;
-        String queryPathKey = MediaStore.MediaColumns.RELATIVE_PATH;
-        String selection = queryPathKey + "=? and " + MediaStore.MediaColumns.DISPLAY_NAME + "=?";
+    private void queryMetadata() {
+        Cursor cursor;
+        if (contentUri != null) {
+            cursor = contentResolver.query(getQueryUri(contentUri),
+                    new String[]{MediaStore.MediaColumns._ID, MediaStore.MediaColumns.SIZE, MediaStore.MediaColumns.DATA},
+                    buildQueryBundle(null, null), null);
+        } else {
+            String selection = MediaStore.MediaColumns.RELATIVE_PATH + "=? and " + MediaStore.MediaColumns.DISPLAY_NAME + "=?";
+            cursor = contentResolver.query(getQueryUri(schemaUri),
+                    new String[]{MediaStore.MediaColumns._ID, MediaStore.MediaColumns.SIZE, MediaStore.MediaColumns.DATA},
+                    buildQueryBundle(selection, new String[]{getRelativePath(), file.getName()}), null);
+        }
+        if (cursor != null && cursor.moveToFirst()) {
+            mediaLength = cursor.getLong(cursor.getColumnIndex(MediaStore.MediaColumns.SIZE));
+            pathAboveQ = cursor.getString(cursor.getColumnIndex(MediaStore.MediaColumns.DATA));
+            if (contentUri == null) {
+                contentUri = Uri.withAppendedPath(schemaUri, "" + cursor.getInt(cursor.getColumnIndex(MediaStore.MediaColumns._ID)));
+            }
+        } else {
+            //The file is deleted.
+            contentUri = null;
+            pathAboveQ = null;
+            mediaLength = 0;
+        }
+        Util.closeQuietly(cursor);
+        metadataTime = SystemClock.elapsedRealtime();
+    }
+
+    private String getRelativePath() {
         String relativePath = file.getParent();
         if (relativePath == null) {
             throw new IllegalArgumentException("relativePath is null.");
@@ -300,17 +467,7 @@ public class PumpFile {
         if (!relativePath.endsWith(File.separator)) {
             relativePath = relativePath + File.separator;
         }
-        String[] selectionArgs = new String[]{relativePath, file.getName()};
-        Cursor cursor = contentResolver.query(getQueryUri(schemaUri), new String[]{MediaStore.MediaColumns._ID, MediaStore.MediaColumns.DATA, queryPathKey, MediaStore.MediaColumns.DISPLAY_NAME},
-                buildQueryBundle(selection, selectionArgs), null);
-        if (cursor != null && cursor.moveToFirst()) {
-            fileMediaStoreId = cursor.getInt(cursor.getColumnIndex(MediaStore.MediaColumns._ID));
-            pathAboveQ = cursor.getString(cursor.getColumnIndex(MediaStore.MediaColumns.DATA));
-        }
-        Util.closeQuietly(cursor);
-        if (fileMediaStoreId != null) {
-            contentUri = Uri.withAppendedPath(schemaUri, fileMediaStoreId.toString());
-        }
+        return relativePath;
     }
 
     @RequiresApi(api = Build.VERSION_CODES.Q)
@@ -0,0 +1,217 @@
+package com.huxq17.download.core;
+
+import com.huxq17.download.PumpFactory;
+import com.huxq17.download.core.policy.SchedulingPolicy;
+import com.huxq17.download.core.service.IDownloadConfigService;
+import com.huxq17.download.core.task.DownloadTask;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Queue of waiting download tasks,the next task is chosen by {@link SchedulingPolicy} when it is
+ * taken,so changes of priority and content length take effect without sorting the queue again.
+ * The task that has waited longer than max waiting time is taken first.
+ */
+class SchedulingQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final List<Long> waitingTimes = new ArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private Set<DownloadTask> runningTasks = Collections.emptySet();
+
+    void setRunningTasks(Set<DownloadTask> runningTasks) {
+        this.runningTasks = runningTasks;
+    }
+
+    @Override
+    public boolean offer(Runnable runnable) {
+        if (runnable == null) {
+            throw new NullPointerException();
+        }
+        getSchedulingPolicy().onWaiting((DownloadTask) runnable);
+        lock.lock();
+        try {
+            tasks.add(runnable);
+            waitingTimes.add(System.currentTimeMillis());
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    @Override
+    public void put(Runnable runnable) {
+        offer(runnable);
+    }
+
+    @Override
+    public boolean offer(Runnable runnable, long timeout, TimeUnit unit) {
+        return offer(runnable);
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (tasks.isEmpty()) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (tasks.isEmpty()) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            return tasks.isEmpty() ? null : tasks.get(0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        lock.lock();
+        try {
+            int index = tasks.indexOf(o);
+            if (index == -1) {
+                return false;
+            }
+            tasks.remove(index);
+            waitingTimes.remove(index);
+            getSchedulingPolicy().onRemoved((DownloadTask) o);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        lock.lock();
+        try {
+            return tasks.contains(o);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return tasks.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+        lock.lock();
+        try {
+            int count = Math.min(maxElements, tasks.size());
+            SchedulingPolicy schedulingPolicy = getSchedulingPolicy();
+            for (int i = 0; i < count; i++) {
+                Runnable task = tasks.remove(0);
+                waitingTimes.remove(0);
+                schedulingPolicy.onRemoved((DownloadTask) task);
+                c.add(task);
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return a snapshot iterator of waiting tasks.
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        lock.lock();
+        try {
+            return Collections.unmodifiableList(new ArrayList<>(tasks)).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Runnable dequeue() {
+        if (tasks.isEmpty()) {
+            return null;
+        }
+        int index = 0;
+        IDownloadConfigService configService = PumpFactory.getService(IDownloadConfigService.class);
+        //Tasks are ordered by waiting time,so the first one has waited longest.
+        if (System.currentTimeMillis() - waitingTimes.get(0) < configService.getMaxWaitingTime()) {
+            List<DownloadTask> waitingTasks = new ArrayList<>(tasks.size());
+            for (Runnable task : tasks) {
+                waitingTasks.add((DownloadTask) task);
+            }
+            index = configService.getSchedulingPolicy().select(waitingTasks, new ArrayList<>(runningTasks));
+            if (index < 0 || index >= tasks.size()) {
+                index = 0;
+            }
+        }
+        waitingTimes.remove(index);
+        Runnable task = tasks.remove(index);
+        configService.getSchedulingPolicy().onRemoved((DownloadTask) task);
+        return task;
+    }
+
+    private SchedulingPolicy getSchedulingPolicy() {
+        return PumpFactory.getService(IDownloadConfigService.class).getSchedulingPolicy();
+    }
+}
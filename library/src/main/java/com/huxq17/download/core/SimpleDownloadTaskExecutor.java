@@ -2,11 +2,13 @@ package com.huxq17.download.core;
 
 import com.huxq17.download.PumpFactory;
 import com.huxq17.download.core.service.IDownloadConfigService;
+import com.huxq17.download.core.service.IDownloadManager;
 import com.huxq17.download.core.task.DownloadTask;
 import com.huxq17.download.utils.LogUtil;
 
+import java.util.Collections;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -16,10 +18,12 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class SimpleDownloadTaskExecutor extends ThreadPoolExecutor implements DownloadTaskExecutor {
     private static final int DEFAULT_THREAD_COUNT = 3;
     private ConcurrentHashMap<String, Long> countTimeMap = new ConcurrentHashMap<>();
+    private final Set<DownloadTask> runningTasks = Collections.newSetFromMap(new ConcurrentHashMap<DownloadTask, Boolean>());
 
     public SimpleDownloadTaskExecutor() {
         super(DEFAULT_THREAD_COUNT, DEFAULT_THREAD_COUNT, 60, TimeUnit.SECONDS,
-                new LinkedBlockingQueue<Runnable>(), new DownloadRejectedExecutionHandler());
+                new SchedulingQueue(), new DownloadRejectedExecutionHandler());
+        ((SchedulingQueue) getQueue()).setRunningTasks(runningTasks);
         allowCoreThreadTimeOut(true);
     }
 
@@ -42,6 +46,38 @@ public class SimpleDownloadTaskExecutor extends ThreadPoolExecutor implements Do
                     + " tasks can be run at the same time;but " + getActiveCount()
                     + " tasks have been run,so " + downloadTask.getDownloadName() + " is waiting.");
         }
+        preemptIfNeed(downloadTask);
+    }
+
+    /**
+     * Change priority of the task,waiting tasks are chosen by their current priority.
+     */
+    public void setPriority(DownloadTask downloadTask, int priority) {
+        downloadTask.getRequest().setPriority(priority);
+        preemptIfNeed(downloadTask);
+    }
+
+    /**
+     * Preempt the running task with the lowest priority if the waiting task has higher priority.
+     */
+    private synchronized void preemptIfNeed(DownloadTask downloadTask) {
+        if (!PumpFactory.getService(IDownloadConfigService.class).isPriorityPreemption()
+                || !getQueue().contains(downloadTask)) {
+            return;
+        }
+        DownloadTask lowestTask = null;
+        for (DownloadTask runningTask : runningTasks) {
+            if (runningTask.isPreempted()) {
+                continue;
+            }
+            if (lowestTask == null || runningTask.getRequest().getPriority() < lowestTask.getRequest().getPriority()) {
+                lowestTask = runningTask;
+            }
+        }
+        if (lowestTask != null && lowestTask.getRequest().getPriority() < downloadTask.getRequest().getPriority()) {
+            LogUtil.d("Preempt " + lowestTask.getDownloadName() + " to run " + downloadTask.getDownloadName());
+            lowestTask.preemptDownload();
+        }
     }
 
     private int getSafeThreadCount() {
@@ -64,6 +100,7 @@ public class SimpleDownloadTaskExecutor extends ThreadPoolExecutor implements Do
         DownloadTask downloadTask = (DownloadTask) r;
         LogUtil.d("start run " + downloadTask.getDownloadName() + " at thread name=" + t.getName());
         countTimeMap.put(downloadTask.getDownloadId(), System.currentTimeMillis());
+        runningTasks.add(downloadTask);
     }
 
     @Override
@@ -74,6 +111,11 @@ public class SimpleDownloadTaskExecutor extends ThreadPoolExecutor implements Do
         if (startTime != null) {
             LogUtil.d("download " + downloadTask.getDownloadName() + " is stopped,and spend=" + (System.currentTimeMillis() - startTime));
         }
+        runningTasks.remove(downloadTask);
+        if (downloadTask.takePreempted()) {
+            //Wait for the download with higher priority,and resume from breakpoint.
+            PumpFactory.getService(IDownloadManager.class).submit(downloadTask.getRequest());
+        }
     }
 
     @Override
@@ -3,16 +3,17 @@ package com.huxq17.download.core;
 public class SpeedMonitor {
     private long totalRead = 0;
     private long lastSpeedCountTime = 0;
-    final double NANOS_PER_SECOND = 1000000000.0;  //1秒=10亿nanoseconds
-    final double BYTES_PER_GB = 1024 * 1024 * 1024;    //1G=1024*1024*1024byte
-    final double BYTES_PER_MIB = 1024 * 1024;    //1M=1024*1024byte
-    final double BYTES_PER_KB = 1024;
-    final String BYTE_SUFFIX = "B/s";
-    final String KB_SUFFIX = "KB/s";
-    final String MIB_SUFFIX = "MB/s";
-    final String GB_SUFFIX = "GB/s";
+    static final double NANOS_PER_SECOND = 1000000000.0;  //1秒=10亿nanoseconds
+    static final double BYTES_PER_GB = 1024 * 1024 * 1024;    //1G=1024*1024*1024byte
+    static final double BYTES_PER_MIB = 1024 * 1024;    //1M=1024*1024byte
+    static final double BYTES_PER_KB = 1024;
+    static final String BYTE_SUFFIX = "B/s";
+    static final String KB_SUFFIX = "KB/s";
+    static final String MIB_SUFFIX = "MB/s";
+    static final String GB_SUFFIX = "GB/s";
     double speed = 0;
     String suffix = BYTE_SUFFIX;
+    private long bytesPerSecond = 0;
 
     public void download(long length) {
         totalRead += length;
@@ -22,8 +23,43 @@ public class SpeedMonitor {
     }
 
     public String getSpeed() {
+        computeSpeed();
+        return formatSpeed(speed, suffix);
+    }
+
+    /**
+     * Format speed in bytes per second,such as 1.5KB/s.
+     */
+    public static String formatSpeed(long bytesPerSecond) {
+        if (bytesPerSecond < BYTES_PER_KB) {
+            return formatSpeed(bytesPerSecond, BYTE_SUFFIX);
+        } else if (bytesPerSecond < BYTES_PER_MIB) {
+            return formatSpeed(bytesPerSecond / BYTES_PER_KB, KB_SUFFIX);
+        } else if (bytesPerSecond < BYTES_PER_GB) {
+            return formatSpeed(bytesPerSecond / BYTES_PER_MIB, MIB_SUFFIX);
+        }
+        return formatSpeed(bytesPerSecond / BYTES_PER_GB, GB_SUFFIX);
+    }
+
+    private static String formatSpeed(double speed, String suffix) {
+        if (Math.round(speed * 100) % 100 == 0) {
+            return Math.round(speed * 100) / 100 + suffix;
+        }
+        return Math.round(speed * 100) / 100d + suffix;
+    }
+
+    /**
+     * Get the speed in bytes per second, it is computed at most once per second.
+     */
+    public long getBytesPerSecond() {
+        computeSpeed();
+        return bytesPerSecond;
+    }
+
+    private void computeSpeed() {
         long curTime = currentTime();
         if (curTime >= lastSpeedCountTime + NANOS_PER_SECOND) {
+            bytesPerSecond = (long) (NANOS_PER_SECOND * totalRead / (curTime - lastSpeedCountTime));
             if (totalRead < BYTES_PER_KB) {
                 speed = NANOS_PER_SECOND * totalRead / (curTime - lastSpeedCountTime);
                 suffix = BYTE_SUFFIX;
@@ -40,10 +76,6 @@ public class SpeedMonitor {
             lastSpeedCountTime = curTime;
             totalRead = 0;
         }
-        if (Math.round(speed * 100) % 100 == 0) {
-            return Math.round(speed * 100) / 100 + suffix;
-        }
-        return Math.round(speed * 100) / 100d + suffix;
     }
 
     public long currentTime() {
@@ -6,6 +6,7 @@ import com.huxq17.download.utils.Util;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 
 import okhttp3.Call;
 import okhttp3.OkHttpClient;
@@ -15,7 +16,7 @@ import okio.BufferedSink;
 import okio.BufferedSource;
 import okio.Okio;
 
-public class OkHttpDownloadConnection implements DownloadConnection {
+public class OkHttpDownloadConnection implements ReadableDownloadConnection {
     private Response response;
     private Call call;
     private OkHttpClient okHttpClient;
@@ -61,20 +62,46 @@ public class OkHttpDownloadConnection implements DownloadConnection {
     public int downloadBuffer(byte[] buffer, int offset, int byteCount) throws IOException {
         int len = bufferedSource.read(buffer, offset, byteCount);
         if (len != -1) {
-            bufferedSink.write(buffer, 0, len);
+            bufferedSink.write(buffer, offset, len);
         }
         return len;
     }
 
+    @Override
+    public long transferTo(FileChannel channel, long position, long maxBytes) throws IOException {
+        if (bufferedSource == null) {
+            bufferedSource = response.body().source();
+        }
+        //FileChannel can't tell end of source from an empty read.
+        if (bufferedSource.exhausted()) {
+            return -1;
+        }
+        return channel.transferFrom(bufferedSource, position, maxBytes);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int byteCount) throws IOException {
+        if (bufferedSource == null) {
+            bufferedSource = response.body().source();
+        }
+        return bufferedSource.read(buffer, offset, byteCount);
+    }
+
     @Override
     public void flushDownload() throws IOException {
-        bufferedSink.flush();
+        if (bufferedSink != null) {
+            bufferedSink.flush();
+        }
     }
 
     @Override
     public void close() {
         Util.closeQuietly(bufferedSink);
         Util.closeQuietly(bufferedSource);
+        if (bufferedSource == null) {
+            //Body that isn't read must be closed too,or its connection can't be reused.
+            Util.closeQuietly(response);
+        }
     }
 
     @Override
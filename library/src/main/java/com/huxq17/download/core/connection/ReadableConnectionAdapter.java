@@ -0,0 +1,102 @@
+package com.huxq17.download.core.connection;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+import okhttp3.Response;
+import okio.BufferedSource;
+
+/**
+ * Read the response body of a custom {@link DownloadConnection} that isn't readable,
+ * other methods are delegated to the connection.
+ */
+public class ReadableConnectionAdapter implements ReadableDownloadConnection {
+    private final DownloadConnection connection;
+    private Response response;
+
+    private ReadableConnectionAdapter(DownloadConnection connection) {
+        this.connection = connection;
+    }
+
+    public static ReadableDownloadConnection wrap(DownloadConnection connection) {
+        if (connection instanceof ReadableDownloadConnection) {
+            return (ReadableDownloadConnection) connection;
+        }
+        return new ReadableConnectionAdapter(connection);
+    }
+
+    @Override
+    public void addHeader(String key, String value) {
+        connection.addHeader(key, value);
+    }
+
+    @Override
+    public String getHeader(String key) {
+        return connection.getHeader(key);
+    }
+
+    @Override
+    public Response connect() throws IOException {
+        return response = connection.connect();
+    }
+
+    @Override
+    public Response connect(@NonNull String method) throws IOException {
+        return response = connection.connect(method);
+    }
+
+    @Override
+    public void prepareDownload(File file) throws IOException {
+        connection.prepareDownload(file);
+    }
+
+    @Override
+    public int downloadBuffer(byte[] buffer, int offset, int byteCount) throws IOException {
+        return connection.downloadBuffer(buffer, offset, byteCount);
+    }
+
+    @Override
+    public long transferTo(FileChannel channel, long position, long maxBytes) throws IOException {
+        BufferedSource source = getSource();
+        //FileChannel can't tell end of source from an empty read.
+        if (source.exhausted()) {
+            return -1;
+        }
+        return channel.transferFrom(source, position, maxBytes);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int byteCount) throws IOException {
+        return getSource().read(buffer, offset, byteCount);
+    }
+
+    private BufferedSource getSource() throws IOException {
+        if (response == null || response.body() == null) {
+            throw new IOException("Connection has no response body.");
+        }
+        return response.body().source();
+    }
+
+    @Override
+    public void flushDownload() throws IOException {
+        connection.flushDownload();
+    }
+
+    @Override
+    public void close() {
+        connection.close();
+    }
+
+    @Override
+    public void cancel() {
+        connection.cancel();
+    }
+
+    @Override
+    public boolean isCanceled() {
+        return connection.isCanceled();
+    }
+}
@@ -0,0 +1,28 @@
+package com.huxq17.download.core.connection;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Connection whose response body can be read by caller instead of being written into the prepared file,
+ * segments of a download are written by their own positions through it.
+ * Connections that don't implement it are read from the response they return by
+ * {@link ReadableConnectionAdapter}.
+ */
+public interface ReadableDownloadConnection extends DownloadConnection {
+    /**
+     * Transfer bytes of response body into the channel at the given position,the channel is owned by
+     * caller and must not be closed by connection.
+     *
+     * @param maxBytes the maximum number of bytes to transfer.
+     * @return the number of bytes transferred, or -1 if the response body is exhausted.
+     */
+    long transferTo(FileChannel channel, long position, long maxBytes) throws IOException;
+
+    /**
+     * Read bytes of response body into the buffer,they aren't written into the prepared file.
+     *
+     * @return the number of bytes read, or -1 if the response body is exhausted.
+     */
+    int read(byte[] buffer, int offset, int byteCount) throws IOException;
+}
@@ -10,16 +10,22 @@ import com.huxq17.download.DownloadProvider;
 import com.huxq17.download.ErrorCode;
 import com.huxq17.download.PumpFactory;
 import com.huxq17.download.TaskManager;
+import com.huxq17.download.core.CompletionIndex;
 import com.huxq17.download.core.DownloadDetailsInfo;
 import com.huxq17.download.core.DownloadInfo;
 import com.huxq17.download.core.DownloadInterceptor;
 import com.huxq17.download.core.DownloadRequest;
 import com.huxq17.download.core.PumpFile;
 import com.huxq17.download.core.connection.DownloadConnection;
+import com.huxq17.download.core.connection.ReadableConnectionAdapter;
 import com.huxq17.download.core.service.IDownloadConfigService;
 import com.huxq17.download.core.service.IDownloadManager;
+import com.huxq17.download.core.task.AdaptiveThreadController;
+import com.huxq17.download.core.task.ChecksumVerifier;
+import com.huxq17.download.core.task.ConnectionBudget;
 import com.huxq17.download.core.task.DownloadBlockTask;
 import com.huxq17.download.core.task.DownloadTask;
+import com.huxq17.download.core.task.SegmentScheduler;
 import com.huxq17.download.core.task.Task;
 import com.huxq17.download.db.DBService;
 import com.huxq17.download.utils.LogUtil;
@@ -29,6 +35,7 @@ import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -36,6 +43,7 @@ import okhttp3.Response;
 
 import static com.huxq17.download.ErrorCode.ERROR_CONTENT_LENGTH_NOT_FOUND;
 import static com.huxq17.download.utils.Util.CONTENT_LENGTH_NOT_FOUND;
+import static com.huxq17.download.utils.Util.DOWNLOAD_BLOCK;
 import static com.huxq17.download.utils.Util.DOWNLOAD_PART;
 
 public class ConnectInterceptor implements DownloadInterceptor {
@@ -45,30 +53,114 @@ public class ConnectInterceptor implements DownloadInterceptor {
     private final List<DownloadBlockTask> blockList = new ArrayList<>();
     private boolean isConditionRequest;
     private DownloadConnection connection;
+    private FileChannel fileChannel;
+    /**
+     * The position of download file that the first connection starts at.
+     */
+    private long connectedPosition;
+    private String host;
+    /**
+     * Whether the first connection holds the connection budget.
+     */
+    private boolean isConnectionAcquired;
 
-    private void deleteTempIfThreadNumChanged(DownloadDetailsInfo downloadInfo) {
+    /**
+     * Delete temp files that can't be resumed.
+     */
+    private void checkTempFiles(DownloadDetailsInfo downloadInfo) {
         File tempDir = downloadInfo.getTempDir();
         if (tempDir != null) {
+            final String tempPrefix = downloadInfo.isPreallocated() ? DOWNLOAD_BLOCK : DOWNLOAD_PART;
+            final boolean[] hasOtherTemp = new boolean[1];
             String[] childList = tempDir.list(new FilenameFilter() {
                 @Override
                 public boolean accept(File dir, String name) {
-                    return name.startsWith(DOWNLOAD_PART);
+                    if (name.startsWith(DOWNLOAD_PART) || name.startsWith(DOWNLOAD_BLOCK)) {
+                        if (!name.startsWith(tempPrefix)) {
+                            hasOtherTemp[0] = true;
+                        }
+                        return true;
+                    }
+                    return false;
                 }
             });
-            if (childList != null && childList.length != downloadInfo.getThreadNum()) {
+            if (childList == null || childList.length == 0) {
+                return;
+            }
+            if (hasOtherTemp[0]) {
+                downloadInfo.deleteTempDir();
+            } else if (downloadInfo.isPreallocated()) {
+                if (downloadInfo.getDownloadFile() == null || !downloadInfo.getDownloadFile().exists()) {
+                    //The preallocated download file has been deleted, so the recorded blocks are useless.
+                    downloadInfo.deleteTempDir();
+                }
+            } else if (!SegmentScheduler.restorePartRanges(downloadInfo.getId(), tempDir,
+                    downloadInfo.getContentLength(), downloadInfo.getThreadNum())) {
                 downloadInfo.deleteTempDir();
             }
         }
     }
 
+    /**
+     * @return verifier of the checksum that request expects,or null if download file isn't verified.
+     */
+    private ChecksumVerifier createChecksumVerifier(DownloadRequest downloadRequest) {
+        String algorithm = downloadRequest.getChecksumAlgorithm();
+        if (algorithm == null) {
+            return null;
+        }
+        String checksum = downloadRequest.getChecksum();
+        if (checksum == null) {
+            checksum = downloadInfo.getMd5();
+        }
+        if (TextUtils.isEmpty(checksum)) {
+            LogUtil.w("Can't verify " + downloadInfo.getName() + " because server doesn't return Content-MD5.");
+            return null;
+        }
+        return new ChecksumVerifier(algorithm, checksum);
+    }
+
+    private boolean hasPreallocatedBlocks() {
+        File tempDir = downloadInfo.getTempDir();
+        if (tempDir == null) {
+            return false;
+        }
+        String[] childList = tempDir.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(DOWNLOAD_BLOCK);
+            }
+        });
+        return childList != null && childList.length > 0;
+    }
+
     @Override
     public DownloadInfo intercept(DownloadChain chain) {
+        host = ConnectionBudget.getHost(chain.request().getUrl());
+        try {
+            ConnectionBudget.getInstance().acquire(host);
+        } catch (InterruptedException e) {
+            //Cancelled while waiting for connection.
+            Thread.currentThread().interrupt();
+            return chain.request().getDownloadInfo().snapshot();
+        }
+        isConnectionAcquired = true;
+        try {
+            return download(chain);
+        } finally {
+            releaseConnection();
+        }
+    }
+
+    private DownloadInfo download(DownloadChain chain) {
         isConditionRequest = false;
         DownloadRequest downloadRequest = chain.request();
         downloadInfo = downloadRequest.getDownloadInfo();
         downloadTask = downloadInfo.getDownloadTask();
+        downloadInfo.setPreallocated(PumpFactory.getService(IDownloadConfigService.class).isPreallocateDownloadFile()
+                && !downloadInfo.isDisableBreakPointDownload());
 
-        deleteTempIfThreadNumChanged(downloadInfo);
+        checkTempFiles(downloadInfo);
         DownloadConnection conn = buildRequest(downloadRequest);
         int responseCode;
         Response response = connect(conn);
@@ -88,10 +180,14 @@ public class ConnectInterceptor implements DownloadInterceptor {
         final String eTag = conn.getHeader("ETag");
         final String acceptRanges = conn.getHeader("Accept-Ranges");
         downloadInfo.setMD5(conn.getHeader("Content-MD5"));
+        downloadInfo.setChecksumVerifier(createChecksumVerifier(downloadRequest));
         downloadInfo.setTransferEncoding(conn.getHeader("Transfer-Encoding"));
 
         responseCode = response.code();
         long contentLength = getContentLength(conn);
+        if (downloadInfo.isChunked() || contentLength <= 0) {
+            downloadInfo.setPreallocated(false);
+        }
         if (response.isSuccessful()) {
             if (contentLength == CONTENT_LENGTH_NOT_FOUND && !downloadInfo.isChunked()) {
                 downloadInfo.setErrorCode(ERROR_CONTENT_LENGTH_NOT_FOUND);
@@ -118,7 +214,12 @@ public class ConnectInterceptor implements DownloadInterceptor {
             return closeConnectionAndReturn();
         }
         if (responseCode == HttpURLConnection.HTTP_OK) {
-            firstBlockTask.clearTemp();
+            //Resource has changed or server ignores range,so ranges of every segment are stale even if
+            //content length is the same.
+            downloadInfo.deleteTempDir();
+            DBService.getInstance().deleteSegments(downloadInfo.getId());
+            firstBlockTask.setConnectedOverlap(0);
+            connectedPosition = 0;
         } else if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
 
         }
@@ -135,33 +236,146 @@ public class ConnectInterceptor implements DownloadInterceptor {
         int threadNum = isSupportBreakPointDownload ? downloadRequest.getThreadNum() : 1;
         downloadInfo.setThreadNum(threadNum);
         checkDownloadFile(contentLength, isSupportBreakPointDownload);
+        if (downloadInfo.isPreallocated() && !openFileChannel(contentLength)) {
+            downloadInfo.setErrorCode(ErrorCode.ERROR_CREATE_FILE_FAILED);
+            return closeConnectionAndReturn();
+        }
 
-        long completedSize = 0L;
         synchronized (blockList) {
-            for (int i = 0; i < threadNum; i++) {
-                if (i == 0) {
-                    completedSize += firstBlockTask.getCompletedSize();
-                } else {
-                    DownloadBlockTask task = new DownloadBlockTask(downloadRequest, i);
-                    completedSize += task.getCompletedSize();
-                    blockList.add(task);
-                    TaskManager.execute(task);
-                }
+            if (!downloadInfo.isChunked() && contentLength > 0) {
+                startSegments(downloadRequest, contentLength, threadNum);
+            } else {
+                //Chunked download can't be split,it is downloaded by one connection and its only part file
+                //is merged without segment.
+                DBService.getInstance().deleteSegments(downloadInfo.getId());
+                downloadInfo.setThreadNum(1);
+                downloadInfo.setCompletedSize(firstBlockTask.getCompletedSize());
             }
         }
-        downloadInfo.setCompletedSize(completedSize);
         firstBlockTask.run();
-        for (DownloadBlockTask task : blockList) {
-            task.waitUntilFinished();
-        }
+        waitBlockTasks();
+        downloadTask.flushProgress();
         clearBlockList();
+        closeFileChannel();
+        releaseConnection();
         return chain.proceed(downloadRequest);
     }
 
+    /**
+     * Start threads to download segments of the download file, a thread steals from other
+     * segments after its own is finished.
+     */
+    private void startSegments(final DownloadRequest downloadRequest, long contentLength, int threadNum) {
+        long minSegmentSize = PumpFactory.getService(IDownloadConfigService.class).getMinSegmentSize();
+        int initialThreadNum = threadNum;
+        if (downloadRequest.isAdaptiveThreadNum()) {
+            //Small file is not worth more than one connection.
+            boolean isSmallFile = contentLength < minSegmentSize * 4;
+            initialThreadNum = isSmallFile ? 1 : Math.min(2, threadNum);
+        }
+        final SegmentScheduler segmentScheduler = downloadInfo.isPreallocated() ?
+                new SegmentScheduler(downloadInfo.getTempDir(), contentLength, initialThreadNum, minSegmentSize) :
+                new SegmentScheduler(downloadInfo.getId(), downloadInfo.getTempDir(), contentLength,
+                        initialThreadNum, minSegmentSize);
+        downloadInfo.setCompletedSize(segmentScheduler.getCompletedSize());
+        AdaptiveThreadController threadController = null;
+        if (downloadRequest.isAdaptiveThreadNum() && contentLength >= minSegmentSize * 4) {
+            final AdaptiveThreadController[] controllers = new AdaptiveThreadController[1];
+            threadController = new AdaptiveThreadController(initialThreadNum, threadNum, new AdaptiveThreadController.Callback() {
+                @Override
+                public boolean addThread() {
+                    synchronized (blockList) {
+                        return downloadTask.isRunning() && startSegmentTask(downloadRequest,
+                                blockList.size() + 1, segmentScheduler, controllers[0]);
+                    }
+                }
+            });
+            controllers[0] = threadController;
+        }
+        firstBlockTask.setFileChannel(fileChannel);
+        firstBlockTask.setSegmentScheduler(segmentScheduler, segmentScheduler.pollAt(connectedPosition));
+        firstBlockTask.setThreadController(threadController);
+        for (int i = 1; i < initialThreadNum; i++) {
+            //Segments that have no thread are downloaded by other threads after theirs.
+            if (!startSegmentTask(downloadRequest, i, segmentScheduler, threadController)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return false if connection budget is used up.
+     */
+    private boolean startSegmentTask(DownloadRequest downloadRequest, int blockId, SegmentScheduler segmentScheduler,
+                                     AdaptiveThreadController threadController) {
+        if (!ConnectionBudget.getInstance().tryAcquire(host)) {
+            return false;
+        }
+        DownloadBlockTask task = new DownloadBlockTask(downloadRequest, blockId);
+        task.setConnectionHost(host);
+        task.setFileChannel(fileChannel);
+        task.setSegmentScheduler(segmentScheduler, null);
+        task.setThreadController(threadController);
+        blockList.add(task);
+        TaskManager.execute(task);
+        return true;
+    }
+
+    private void releaseConnection() {
+        if (isConnectionAcquired) {
+            isConnectionAcquired = false;
+            ConnectionBudget.getInstance().release(host);
+        }
+    }
+
+    /**
+     * Wait until all block tasks finished,the adaptive download may add block task meanwhile.
+     * Block tasks that haven't been started by thread pool are run by current thread,and all of them
+     * are cancelled if current thread is interrupted,they must stop before file channel is closed.
+     */
+    private void waitBlockTasks() {
+        int index = 0;
+        while (true) {
+            DownloadBlockTask task;
+            synchronized (blockList) {
+                if (index >= blockList.size()) {
+                    break;
+                }
+                task = blockList.get(index++);
+            }
+            try {
+                task.join();
+            } catch (InterruptedException e) {
+                //The interruption is handed to block tasks,so current thread can go on to retry or merge.
+                cancel();
+                task.waitUntilFinished();
+            }
+        }
+    }
+
+    private boolean openFileChannel(long contentLength) {
+        try {
+            fileChannel = downloadInfo.getDownloadFile().openChannel(contentLength);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private void closeFileChannel() {
+        Util.closeQuietly(fileChannel);
+        fileChannel = null;
+    }
+
     public void cancel() {
         if (connection != null) {
             connection.cancel();
         }
+        //The first block task may open new connections to download other segments.
+        if (firstBlockTask != null) {
+            firstBlockTask.cancel();
+        }
         synchronized (blockList) {
             for (Task task : blockList) {
                 task.cancel();
@@ -171,18 +385,27 @@ public class ConnectInterceptor implements DownloadInterceptor {
 
     private void clearBlockList() {
         synchronized (blockList) {
+            for (DownloadBlockTask task : blockList) {
+                task.releaseConnection();
+            }
             blockList.clear();
         }
     }
 
     private boolean checkIsSpaceNotEnough(long contentLength) {
         Context context = PumpFactory.getService(IDownloadManager.class).getContext();
-        long downloadDirUsableSpace = Util.getUsableSpace(downloadInfo.getTempDir());
+        File downloadDir = downloadInfo.isPreallocated() ? downloadInfo.getDownloadFile().getFile() : null;
+        if (downloadDir == null) {
+            downloadDir = downloadInfo.getTempDir();
+        }
+        long downloadDirUsableSpace = Util.getUsableSpace(downloadDir);
         long dataFileUsableSpace = Util.getUsableSpace(context.getFilesDir().getParentFile());
         long minUsableStorageSpace = PumpFactory.getService(IDownloadConfigService.class).getMinUsableSpace();
-        if (downloadDirUsableSpace < contentLength * 2 || dataFileUsableSpace <= minUsableStorageSpace) {
+        //Download file is written directly if it is preallocated, so there is no merge file.
+        long requiredSpace = downloadInfo.isPreallocated() ? contentLength : contentLength * 2;
+        if (downloadDirUsableSpace < requiredSpace || dataFileUsableSpace <= minUsableStorageSpace) {
             String downloadFileAvailableSize = Formatter.formatFileSize(context, downloadDirUsableSpace);
-            LogUtil.e("Download temp directory is" + downloadInfo.getTempDir() + " and usable space is " +
+            LogUtil.e("Download directory is" + downloadDir + " and usable space is " +
                     downloadFileAvailableSize + ";but download file's contentLength is " + contentLength);
             return true;
         }
@@ -196,6 +419,7 @@ public class ConnectInterceptor implements DownloadInterceptor {
         }
         downloadInfo.setContentLength(contentLength);
         downloadInfo.setFinished(0);
+        CompletionIndex.getInstance().update(downloadInfo);
         downloadTask.updateInfo();
     }
 
@@ -205,6 +429,7 @@ public class ConnectInterceptor implements DownloadInterceptor {
         this.connection = connection;
         firstBlockTask = new DownloadBlockTask(downloadRequest, 0, connection);
         long completedSize = firstBlockTask.getCompletedSize();
+        connectedPosition = 0;
         DownloadProvider.CacheBean cacheBean = DBService.getInstance().queryCache(id);
         if (cacheBean == null) {
             return connection;
@@ -212,8 +437,13 @@ public class ConnectInterceptor implements DownloadInterceptor {
         String eTag = cacheBean.eTag;
         String lastModified = cacheBean.lastModified;
         if (completedSize > 0 && !downloadInfo.isDisableBreakPointDownload()) {
+            //Download the tail of completed bytes again to check it.
+            long overlap = Math.min(PumpFactory.getService(IDownloadConfigService.class).getResumeOverlapSize(),
+                    completedSize);
             connection.addHeader("If-Range", cacheBean.getIfRangeField());
-            connection.addHeader("Range", "bytes=" + completedSize + "-");
+            connection.addHeader("Range", "bytes=" + (completedSize - overlap) + "-");
+            connectedPosition = completedSize;
+            firstBlockTask.setConnectedOverlap(overlap);
             isConditionRequest = true;
         } else if (downloadRequest.getDownloadInfo().isFinished() && !downloadRequest.isForceReDownload()) {
             if (!TextUtils.isEmpty(lastModified)) {
@@ -267,12 +497,14 @@ public class ConnectInterceptor implements DownloadInterceptor {
     private DownloadInfo closeConnectionAndReturn() {
         connection.close();
         connection = null;
+        closeFileChannel();
         return downloadInfo.snapshot();
     }
 
     private DownloadConnection createConnection(DownloadRequest downloadRequest) {
-        return PumpFactory.getService(IDownloadConfigService.class).getDownloadConnectionFactory()
-                .create(downloadRequest.getHttpRequestBuilder());
+        //The first connection is read by the first block task,so it's wrapped before connected.
+        return ReadableConnectionAdapter.wrap(PumpFactory.getService(IDownloadConfigService.class)
+                .getDownloadConnectionFactory().create(downloadRequest.getHttpRequestBuilder()));
     }
 
     private boolean prepareDownloadFile(DownloadTask downloadTask, Response response) {
@@ -296,8 +528,14 @@ public class ConnectInterceptor implements DownloadInterceptor {
             }
             downloadDetailsInfo.setFilePath(parentDirectory + File.separatorChar + fileName);
         }
-        downloadDetailsInfo.deleteDownloadFile();
-        boolean createResult = downloadDetailsInfo.getDownloadFile().createNewFile();
+        boolean createResult;
+        if (downloadDetailsInfo.isPreallocated() && hasPreallocatedBlocks()) {
+            //Keep the preallocated download file to resume.
+            createResult = true;
+        } else {
+            downloadDetailsInfo.deleteDownloadFile();
+            createResult = downloadDetailsInfo.getDownloadFile().createNewFile(downloadDetailsInfo.isPreallocated());
+        }
         downloadTask.updateInfo();
         return createResult;
     }
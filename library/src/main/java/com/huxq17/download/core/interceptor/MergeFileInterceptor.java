@@ -6,19 +6,23 @@ import android.text.format.Formatter;
 
 import com.huxq17.download.ErrorCode;
 import com.huxq17.download.PumpFactory;
+import com.huxq17.download.core.CompletionIndex;
 import com.huxq17.download.core.DownloadDetailsInfo;
 import com.huxq17.download.core.DownloadInfo;
 import com.huxq17.download.core.DownloadInterceptor;
 import com.huxq17.download.core.DownloadRequest;
 import com.huxq17.download.core.PumpFile;
 import com.huxq17.download.core.service.IDownloadManager;
+import com.huxq17.download.core.task.ChecksumVerifier;
 import com.huxq17.download.core.task.DownloadTask;
+import com.huxq17.download.db.DBService;
 import com.huxq17.download.utils.FileUtil;
 import com.huxq17.download.utils.LogUtil;
 import com.huxq17.download.utils.Util;
 
 import java.io.File;
-import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.List;
 
 import static com.huxq17.download.utils.Util.DOWNLOAD_PART;
 
@@ -37,15 +41,17 @@ public class MergeFileInterceptor implements DownloadInterceptor {
         synchronized (lock) {
             long contentLength = downloadInfo.getContentLength();
             long completedSize = downloadInfo.getCompletedSize();
-            File tempDir = downloadInfo.getTempDir();
-            File[] downloadPartFiles = tempDir.listFiles(new FilenameFilter() {
-                @Override
-                public boolean accept(File dir, String name) {
-                    return name.startsWith(DOWNLOAD_PART);
+            if (downloadInfo.isPreallocated()) {
+                //Download threads have written into the download file,so there is nothing to merge.
+                if (contentLength > 0 && completedSize == contentLength) {
+                    downloadInfo.getDownloadFile().clearPending();
+                    downloadInfo.deleteTempDir();
+                    checkDownloadResult(contentLength, completedSize);
                 }
-            });
-            if (contentLength > 0 && completedSize == contentLength && downloadPartFiles != null
-                    && downloadPartFiles.length == downloadInfo.getThreadNum()) {
+                return downloadInfo.snapshot();
+            }
+            File[] downloadPartFiles = getSortedPartFiles();
+            if (contentLength > 0 && completedSize == contentLength && downloadPartFiles != null) {
                 PumpFile file = downloadInfo.getDownloadFile();
                 if (checkIsSpaceInsufficient(contentLength)) {
                     downloadInfo.setErrorCode(ErrorCode.ERROR_MERGE_FILE_FAILED);
@@ -57,14 +63,15 @@ public class MergeFileInterceptor implements DownloadInterceptor {
                     if (downloadPartFiles.length == 1) {
                         mergeSuccess = FileUtil.renameTo(downloadPartFiles[0], file.getFile());
                     } else {
-                        mergeSuccess = FileUtil.mergeFiles(downloadPartFiles, file.getFile());
+                        mergeSuccess = FileUtil.mergeSortedFiles(downloadPartFiles, file.getFile());
                     }
                 } else {
-                    mergeSuccess = file.mergeFiles(downloadPartFiles);
+                    mergeSuccess = file.mergeSortedFiles(downloadPartFiles);
                 }
 
                 if (mergeSuccess) {
                     downloadInfo.deleteTempDir();
+                    DBService.getInstance().deleteSegments(downloadInfo.getId());
                     LogUtil.d("Merge " + downloadInfo.getName() + " spend=" +
                             (System.currentTimeMillis() - startTime) + "; file.length=" + file.length());
                     checkDownloadResult(contentLength, completedSize);
@@ -76,6 +83,29 @@ public class MergeFileInterceptor implements DownloadInterceptor {
         return downloadInfo.snapshot();
     }
 
+    /**
+     * Get part files ordered by the start position of their segments.
+     *
+     * @return part files, or null if some part file is missing.
+     */
+    private File[] getSortedPartFiles() {
+        File tempDir = downloadInfo.getTempDir();
+        List<long[]> segments = DBService.getInstance().querySegments(downloadInfo.getId());
+        if (segments.isEmpty()) {
+            //Chunked download has only one part file and no segment.
+            File partFile = new File(tempDir, DOWNLOAD_PART + 0);
+            return partFile.exists() ? new File[]{partFile} : null;
+        }
+        File[] partFiles = new File[segments.size()];
+        for (int i = 0; i < partFiles.length; i++) {
+            partFiles[i] = new File(tempDir, DOWNLOAD_PART + segments.get(i)[0]);
+            if (!partFiles[i].exists()) {
+                return null;
+            }
+        }
+        return partFiles;
+    }
+
     private boolean checkIsSpaceInsufficient(long contentLength) {
         Context context = PumpFactory.getService(IDownloadManager.class).getContext();
         PumpFile downloadFile = downloadInfo.getDownloadFile();
@@ -91,16 +121,42 @@ public class MergeFileInterceptor implements DownloadInterceptor {
 
     private void checkDownloadResult(long contentLength, long completedSize) {
         long downloadFileLength = downloadInfo.getDownloadFile().length();
-        if (downloadInfo.getStatus() != DownloadInfo.Status.FAILED &&
+        boolean isDownloaded = downloadInfo.getStatus() != DownloadInfo.Status.FAILED &&
                 downloadFileLength > 0 && downloadFileLength == contentLength
-                && downloadFileLength == completedSize) {
+                && downloadFileLength == completedSize;
+        if (isDownloaded && verifyChecksum(contentLength)) {
             downloadInfo.setFinished(1);
             downloadInfo.setStatus(DownloadInfo.Status.FINISHED);
             downloadInfo.setCompletedSize(completedSize);
+        } else if (isDownloaded) {
+            //Download file is broken,so it will be downloaded again.
+            downloadInfo.getDownloadFile().delete();
+            downloadInfo.setFinished(0);
+            downloadInfo.setErrorCode(ErrorCode.ERROR_CHECKSUM_MISMATCH);
         } else {
             downloadInfo.setFinished(0);
             downloadInfo.setErrorCode(ErrorCode.ERROR_DOWNLOAD_FAILED);
         }
+        CompletionIndex.getInstance().update(downloadInfo);
+    }
+
+    private boolean verifyChecksum(long contentLength) {
+        ChecksumVerifier checksumVerifier = downloadInfo.getChecksumVerifier();
+        if (checksumVerifier == null) {
+            return true;
+        }
+        long startTime = System.currentTimeMillis();
+        try {
+            if (checksumVerifier.verify(downloadInfo.getDownloadFile(), contentLength)) {
+                LogUtil.d("Verify " + downloadInfo.getName() + " spend=" + (System.currentTimeMillis() - startTime));
+                return true;
+            }
+            LogUtil.e("Verify " + downloadInfo.getName() + " failed,expected checksum is " +
+                    checksumVerifier.getExpectedChecksum() + " but it is " + checksumVerifier.getChecksum());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return false;
     }
 
 }
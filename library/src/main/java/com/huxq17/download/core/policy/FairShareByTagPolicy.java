@@ -0,0 +1,57 @@
+package com.huxq17.download.core.policy;
+
+import com.huxq17.download.core.DownloadRequest;
+import com.huxq17.download.core.task.DownloadTask;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Share running threads of executor between tags by their weights,the next download is chosen from
+ * the tag that runs the fewest downloads per weight,and by priority within the tag.
+ */
+public class FairShareByTagPolicy implements SchedulingPolicy {
+    private final Map<String, Integer> weights = new HashMap<>();
+
+    /**
+     * Set weight of tag,default weight is 1.
+     */
+    public synchronized FairShareByTagPolicy setWeight(String tag, int weight) {
+        weights.put(tag, Math.max(weight, 1));
+        return this;
+    }
+
+    @Override
+    public void onWaiting(DownloadTask downloadTask) {
+    }
+
+    @Override
+    public void onRemoved(DownloadTask downloadTask) {
+    }
+
+    @Override
+    public synchronized int select(List<DownloadTask> waitingTasks, List<DownloadTask> runningTasks) {
+        Map<String, Integer> runningCounts = new HashMap<>();
+        for (DownloadTask runningTask : runningTasks) {
+            String tag = runningTask.getRequest().getTag();
+            Integer count = runningCounts.get(tag);
+            runningCounts.put(tag, count == null ? 1 : count + 1);
+        }
+        int selected = -1;
+        float selectedShare = 0;
+        for (int i = 0; i < waitingTasks.size(); i++) {
+            DownloadRequest downloadRequest = waitingTasks.get(i).getRequest();
+            String tag = downloadRequest.getTag();
+            Integer count = runningCounts.get(tag);
+            Integer weight = weights.get(tag);
+            float share = (count == null ? 0 : count) / (float) (weight == null ? 1 : weight);
+            if (selected == -1 || share < selectedShare || (share == selectedShare &&
+                    DownloadRequest.comparePriority(downloadRequest, waitingTasks.get(selected).getRequest()) < 0)) {
+                selected = i;
+                selectedShare = share;
+            }
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,32 @@
+package com.huxq17.download.core.policy;
+
+import com.huxq17.download.core.DownloadRequest;
+import com.huxq17.download.core.task.DownloadTask;
+
+import java.util.List;
+
+/**
+ * Run the download with the highest priority first,downloads with the same priority run in the
+ * order they are submitted.It's the default policy.
+ */
+public class PrioritySchedulingPolicy implements SchedulingPolicy {
+    @Override
+    public void onWaiting(DownloadTask downloadTask) {
+    }
+
+    @Override
+    public void onRemoved(DownloadTask downloadTask) {
+    }
+
+    @Override
+    public int select(List<DownloadTask> waitingTasks, List<DownloadTask> runningTasks) {
+        int selected = 0;
+        for (int i = 1; i < waitingTasks.size(); i++) {
+            if (DownloadRequest.comparePriority(waitingTasks.get(i).getRequest(),
+                    waitingTasks.get(selected).getRequest()) < 0) {
+                selected = i;
+            }
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,32 @@
+package com.huxq17.download.core.policy;
+
+import com.huxq17.download.core.task.DownloadTask;
+
+import java.util.List;
+
+/**
+ * Decide which waiting download runs next when executor has a free thread.
+ * Downloads that have waited longer than {@link com.huxq17.download.config.DownloadConfig.Builder#setMaxWaitingTime(long)}
+ * run first whatever the policy is,so no download starves.
+ */
+public interface SchedulingPolicy {
+    /**
+     * Called when a download starts waiting,policy can prepare what it needs to sort the download.
+     */
+    void onWaiting(DownloadTask downloadTask);
+
+    /**
+     * Called when a download leaves the queue,because it is chosen to run or it is removed,so policy can
+     * drop what it prepared.It's called while the queue is locked and should return soon.
+     */
+    void onRemoved(DownloadTask downloadTask);
+
+    /**
+     * Choose the download to run next.
+     *
+     * @param waitingTasks downloads that are waiting,ordered by the time they start waiting.
+     * @param runningTasks downloads that are running in the same executor.
+     * @return index of the chosen download in waitingTasks.
+     */
+    int select(List<DownloadTask> waitingTasks, List<DownloadTask> runningTasks);
+}
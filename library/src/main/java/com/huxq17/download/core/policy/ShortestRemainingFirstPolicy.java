@@ -0,0 +1,109 @@
+package com.huxq17.download.core.policy;
+
+import com.huxq17.download.PumpFactory;
+import com.huxq17.download.TaskManager;
+import com.huxq17.download.core.DownloadDetailsInfo;
+import com.huxq17.download.core.DownloadRequest;
+import com.huxq17.download.core.connection.DownloadConnection;
+import com.huxq17.download.core.service.IDownloadConfigService;
+import com.huxq17.download.core.task.ConnectionBudget;
+import com.huxq17.download.core.task.DownloadTask;
+import com.huxq17.download.db.ProgressJournal;
+import com.huxq17.download.utils.Util;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Run the download with the fewest remaining bytes first among downloads with the same priority,
+ * so many small files don't wait for a large one and the mean completion time is shorter.
+ * Content length that is saved in database is used,a new download is probed by a HEAD request while
+ * it's waiting if the connection budget allows,downloads whose length is unknown run after the others.
+ * Remaining bytes are calculated once when a download starts waiting,so choosing doesn't read the
+ * progress journal while the queue is locked.
+ */
+public class ShortestRemainingFirstPolicy implements SchedulingPolicy {
+    /**
+     * Remaining bytes of waiting downloads by id,Long.MAX_VALUE if the length is unknown.
+     */
+    private final ConcurrentHashMap<String, Long> remainingSizes = new ConcurrentHashMap<>();
+
+    @Override
+    public void onWaiting(final DownloadTask downloadTask) {
+        DownloadDetailsInfo downloadInfo = downloadTask.getDownloadInfo();
+        long contentLength = downloadInfo.getContentLength();
+        if (contentLength > 0) {
+            ProgressJournal progressJournal = ProgressJournal.getInstance();
+            long completedSize = progressJournal == null ? 0 : progressJournal.get(downloadInfo.getId());
+            remainingSizes.put(downloadInfo.getId(), contentLength - Math.max(completedSize, 0));
+            return;
+        }
+        if (remainingSizes.putIfAbsent(downloadInfo.getId(), Long.MAX_VALUE) != null) {
+            //It is being probed.
+            return;
+        }
+        final String host = ConnectionBudget.getHost(downloadTask.getUrl());
+        if (!ConnectionBudget.getInstance().tryAcquire(host)) {
+            //Connections are used up by downloads,so the download isn't probed.
+            return;
+        }
+        TaskManager.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    probeContentLength(downloadTask);
+                } finally {
+                    ConnectionBudget.getInstance().release(host);
+                }
+            }
+        });
+    }
+
+    private void probeContentLength(DownloadTask downloadTask) {
+        DownloadRequest downloadRequest = downloadTask.getRequest();
+        DownloadConnection connection = PumpFactory.getService(IDownloadConfigService.class)
+                .getDownloadConnectionFactory().create(downloadRequest.getHttpRequestBuilder());
+        try {
+            if (connection.connect("HEAD").isSuccessful()) {
+                long contentLength = Util.parseContentLength(connection.getHeader("Content-Length"));
+                if (contentLength > 0) {
+                    //The download may have left the queue meanwhile.
+                    remainingSizes.replace(downloadRequest.getId(), contentLength);
+                }
+            }
+        } catch (IOException e) {
+            //Download runs after downloads with known length.
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Override
+    public int select(List<DownloadTask> waitingTasks, List<DownloadTask> runningTasks) {
+        int selected = 0;
+        long selectedRemaining = getRemaining(waitingTasks.get(0));
+        for (int i = 1; i < waitingTasks.size(); i++) {
+            DownloadTask downloadTask = waitingTasks.get(i);
+            DownloadRequest selectedRequest = waitingTasks.get(selected).getRequest();
+            long remaining = getRemaining(downloadTask);
+            int priority = downloadTask.getRequest().getPriority();
+            if (priority > selectedRequest.getPriority()
+                    || (priority == selectedRequest.getPriority() && remaining < selectedRemaining)) {
+                selected = i;
+                selectedRemaining = remaining;
+            }
+        }
+        return selected;
+    }
+
+    @Override
+    public void onRemoved(DownloadTask downloadTask) {
+        remainingSizes.remove(downloadTask.getDownloadId());
+    }
+
+    private long getRemaining(DownloadTask downloadTask) {
+        Long remainingSize = remainingSizes.get(downloadTask.getDownloadId());
+        return remainingSize == null ? Long.MAX_VALUE : remainingSize;
+    }
+}
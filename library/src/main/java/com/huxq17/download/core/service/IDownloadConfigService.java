@@ -3,6 +3,7 @@ package com.huxq17.download.core.service;
 import com.huxq17.download.config.DownloadConfig;
 import com.huxq17.download.core.DownloadInterceptor;
 import com.huxq17.download.core.connection.DownloadConnection;
+import com.huxq17.download.core.policy.SchedulingPolicy;
 
 import java.util.List;
 
@@ -13,6 +14,28 @@ public interface IDownloadConfigService {
 
     long getMinUsableSpace();
 
+    boolean isPreallocateDownloadFile();
+
+    long getMinSegmentSize();
+
+    long getProgressCoalesceInterval();
+
+    int getResumeOverlapSize();
+
+    int getMaxConnectionNumber();
+
+    int getMaxConnectionNumberPerHost();
+
+    boolean isPriorityPreemption();
+
+    SchedulingPolicy getSchedulingPolicy();
+
+    long getMaxWaitingTime();
+
+    boolean isWritePipeline();
+
+    long getMaxWriteBufferMemory();
+
     List<DownloadInterceptor> getDownloadInterceptors();
 
     DownloadConnection.Factory getDownloadConnectionFactory();
@@ -3,6 +3,7 @@ package com.huxq17.download.core.service;
 import android.content.Context;
 
 import com.huxq17.download.core.DownloadInfo;
+import com.huxq17.download.core.DownloadQuery;
 import com.huxq17.download.core.DownloadRequest;
 
 import java.io.File;
@@ -23,6 +24,10 @@ public interface IDownloadManager {
 
     void resume(String id);
 
+    void setPriority(String id, int priority);
+
+    void setSpeedLimit(String id, long bytesPerSecond);
+
     List<DownloadInfo> getDownloadingList();
 
     List<DownloadInfo> getDownloadedList();
@@ -31,6 +36,8 @@ public interface IDownloadManager {
 
     List<DownloadInfo> getAllDownloadList();
 
+    List<DownloadInfo> queryDownloadList(DownloadQuery downloadQuery);
+
     DownloadInfo getDownloadInfoById(String id);
 
     boolean hasDownloadSucceed(String id);
@@ -0,0 +1,75 @@
+package com.huxq17.download.core.task;
+
+import com.huxq17.download.core.SpeedMonitor;
+
+/**
+ * Add download threads while the aggregate throughput keeps rising, until the max thread num.
+ */
+public class AdaptiveThreadController {
+    /**
+     * New connection needs time to reach its speed,so evaluate every 2 seconds.
+     */
+    private static final long EVALUATE_INTERVAL = 2 * 1000 * 1000 * 1000L;
+    /**
+     * Throughput must rise 10% at least after a thread is added.
+     */
+    private static final float MIN_GROWTH_RATE = 1.1f;
+    private final SpeedMonitor speedMonitor = new SpeedMonitor();
+    private final int maxThreadNum;
+    private final Callback callback;
+    private int threadNum;
+    private long lastBytesPerSecond;
+    private long lastEvaluateTime;
+    private volatile boolean isStopped;
+
+    public AdaptiveThreadController(int threadNum, int maxThreadNum, Callback callback) {
+        this.threadNum = threadNum;
+        this.maxThreadNum = maxThreadNum;
+        this.callback = callback;
+        isStopped = threadNum >= maxThreadNum;
+    }
+
+    public void onDownload(int length) {
+        if (isStopped) {
+            return;
+        }
+        long bytesPerSecond;
+        synchronized (this) {
+            if (isStopped) {
+                return;
+            }
+            speedMonitor.download(length);
+            long currentTime = speedMonitor.currentTime();
+            if (lastEvaluateTime == 0) {
+                lastEvaluateTime = currentTime;
+                return;
+            }
+            if (currentTime - lastEvaluateTime < EVALUATE_INTERVAL) {
+                return;
+            }
+            lastEvaluateTime = currentTime;
+            bytesPerSecond = speedMonitor.getBytesPerSecond();
+            if (bytesPerSecond < lastBytesPerSecond * MIN_GROWTH_RATE) {
+                //The link is saturated,more connections won't help.
+                isStopped = true;
+                return;
+            }
+        }
+        //A thread that isn't started isn't counted,so it is tried again at next evaluation.
+        if (!callback.addThread()) {
+            return;
+        }
+        synchronized (this) {
+            lastBytesPerSecond = bytesPerSecond;
+            threadNum++;
+            isStopped = threadNum >= maxThreadNum;
+        }
+    }
+
+    public interface Callback {
+        /**
+         * @return true if a thread is started,it may fail when connection budget is used up.
+         */
+        boolean addThread();
+    }
+}
@@ -0,0 +1,278 @@
+package com.huxq17.download.core.task;
+
+import android.util.Base64;
+
+import com.huxq17.download.core.DownloadRequest;
+import com.huxq17.download.core.PumpFile;
+import com.huxq17.download.utils.MD5Util;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static com.huxq17.download.utils.Util.closeQuietly;
+
+/**
+ * Verify the download file by the checksum that caller expects.
+ * CRC32 of segments is combined into CRC32 of the file,so every segment is hashed by its own thread
+ * while it is written,and only the ranges that aren't hashed in this session are read back,such as
+ * the bytes downloaded before resume or written again after the hasher was discarded.
+ * Digests like MD5 and SHA-256 can't be combined,so they aren't hashed while downloading and the
+ * whole file is read once more to verify it.
+ */
+public class ChecksumVerifier {
+    private static final long CRC32_POLYNOMIAL = 0xedb88320L;
+    private final String algorithm;
+    private final String expectedChecksum;
+    private final boolean isCrc32;
+    private final List<Hasher> hashers = new ArrayList<>();
+    private String checksum;
+
+    /**
+     * @param expectedChecksum hex or base64 of the checksum.
+     */
+    public ChecksumVerifier(String algorithm, String expectedChecksum) {
+        this.algorithm = algorithm;
+        this.expectedChecksum = expectedChecksum.trim();
+        isCrc32 = DownloadRequest.CHECKSUM_CRC32.equalsIgnoreCase(algorithm);
+    }
+
+    /**
+     * Create hasher for the range that bytes are written from its start one by one.
+     *
+     * @param completedSize size of bytes that have been written before.
+     * @return the hasher, or null if bytes of the range won't be hashed while downloading.
+     */
+    synchronized Hasher createHasher(long start, long completedSize) {
+        if (completedSize > 0 || !isCrc32) {
+            return null;
+        }
+        Hasher hasher;
+        try {
+            hasher = newHasher(start);
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+        hashers.add(hasher);
+        return hasher;
+    }
+
+    /**
+     * Discard the hasher of a range whose bytes are written again,so the range is read back when verified.
+     */
+    synchronized void discard(Hasher hasher) {
+        hashers.remove(hasher);
+    }
+
+    /**
+     * Verify the whole download file after it is written.
+     *
+     * @return true if checksum of the file is equal to the expected checksum.
+     */
+    public boolean verify(PumpFile downloadFile, long contentLength) throws IOException {
+        List<Hasher> sortedHashers;
+        synchronized (this) {
+            sortedHashers = new ArrayList<>(hashers);
+        }
+        Collections.sort(sortedHashers, new Comparator<Hasher>() {
+            @Override
+            public int compare(Hasher o1, Hasher o2) {
+                return o1.start < o2.start ? -1 : (o1.start == o2.start ? 0 : 1);
+            }
+        });
+        InputStream inputStream = downloadFile.openInputStream();
+        if (inputStream == null) {
+            throw new FileNotFoundException("Can't open " + downloadFile.getPath());
+        }
+        byte[] checksumBytes;
+        try {
+            checksumBytes = isCrc32 ? combineCrc32(inputStream, sortedHashers, contentLength) :
+                    completeDigest(inputStream, contentLength);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e.getMessage());
+        } finally {
+            closeQuietly(inputStream);
+        }
+        checksum = MD5Util.bytesToHexString(checksumBytes);
+        return expectedChecksum.equalsIgnoreCase(checksum)
+                || expectedChecksum.equals(Base64.encodeToString(checksumBytes, Base64.NO_WRAP));
+    }
+
+    /**
+     * @return hex of the checksum that is calculated by {@link #verify(PumpFile, long)}.
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public String getExpectedChecksum() {
+        return expectedChecksum;
+    }
+
+    private byte[] combineCrc32(InputStream inputStream, List<Hasher> sortedHashers, long contentLength)
+            throws IOException, NoSuchAlgorithmException {
+        long crc = 0;
+        long position = 0;
+        long inputPosition = 0;
+        byte[] buffer = new byte[64 * 1024];
+        for (Hasher hasher : sortedHashers) {
+            if (hasher.start < position) {
+                continue;
+            }
+            if (hasher.start > position) {
+                Hasher gapHasher = newHasher(position);
+                inputPosition = read(inputStream, inputPosition, gapHasher, hasher.start, buffer);
+                crc = combineCrc32(crc, gapHasher.crc32.getValue(), gapHasher.size);
+                position = hasher.start;
+            }
+            crc = combineCrc32(crc, hasher.crc32.getValue(), hasher.size);
+            position += hasher.size;
+        }
+        if (position < contentLength) {
+            Hasher gapHasher = newHasher(position);
+            read(inputStream, inputPosition, gapHasher, contentLength, buffer);
+            crc = combineCrc32(crc, gapHasher.crc32.getValue(), gapHasher.size);
+        }
+        return new byte[]{(byte) (crc >>> 24), (byte) (crc >>> 16), (byte) (crc >>> 8), (byte) crc};
+    }
+
+    /**
+     * Digest can't be combined from ranges,so the whole file is read back.
+     */
+    private byte[] completeDigest(InputStream inputStream, long contentLength)
+            throws IOException, NoSuchAlgorithmException {
+        Hasher hasher = newHasher(0);
+        read(inputStream, 0, hasher, contentLength, new byte[64 * 1024]);
+        return hasher.digest.digest();
+    }
+
+    /**
+     * Hash bytes of input stream from the end of hasher to the end position.
+     *
+     * @param inputPosition current position of the input stream.
+     * @return position of the input stream after reading.
+     */
+    private static long read(InputStream inputStream, long inputPosition, Hasher hasher, long end,
+                             byte[] buffer) throws IOException {
+        long position = hasher.start + hasher.size;
+        while (inputPosition < position) {
+            long skipped = inputStream.skip(position - inputPosition);
+            if (skipped <= 0) {
+                if (inputStream.read() == -1) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            inputPosition += skipped;
+        }
+        while (inputPosition < end) {
+            int len = inputStream.read(buffer, 0, (int) Math.min(buffer.length, end - inputPosition));
+            if (len == -1) {
+                throw new EOFException();
+            }
+            hasher.update(buffer, 0, len);
+            inputPosition += len;
+        }
+        return inputPosition;
+    }
+
+    private Hasher newHasher(long start) throws NoSuchAlgorithmException {
+        return isCrc32 ? new Hasher(start, new CRC32(), null) :
+                new Hasher(start, null, MessageDigest.getInstance(algorithm));
+    }
+
+    /**
+     * Combine CRC32 of two adjacent ranges like crc32_combine of zlib.
+     *
+     * @param crc1    CRC32 of the first range.
+     * @param crc2    CRC32 of the second range.
+     * @param length2 length of the second range.
+     * @return CRC32 of the two ranges.
+     */
+    static long combineCrc32(long crc1, long crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+        long[] even = new long[32];
+        long[] odd = new long[32];
+        //Operator for one zero bit.
+        odd[0] = CRC32_POLYNOMIAL;
+        long row = 1;
+        for (int i = 1; i < 32; i++) {
+            odd[i] = row;
+            row <<= 1;
+        }
+        //Operators for two and four zero bits.
+        gf2MatrixSquare(even, odd);
+        gf2MatrixSquare(odd, even);
+        //Apply length2 zero bytes to crc1.
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(even, crc1);
+            }
+            length2 >>= 1;
+            if (length2 == 0) {
+                break;
+            }
+            gf2MatrixSquare(odd, even);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(odd, crc1);
+            }
+            length2 >>= 1;
+        } while (length2 != 0);
+        return crc1 ^ crc2;
+    }
+
+    private static long gf2MatrixTimes(long[] matrix, long vector) {
+        long sum = 0;
+        int i = 0;
+        while (vector != 0) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+            vector >>>= 1;
+            i++;
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] matrix) {
+        for (int i = 0; i < 32; i++) {
+            square[i] = gf2MatrixTimes(matrix, matrix[i]);
+        }
+    }
+
+    /**
+     * Hash bytes of a range from its start,it is only used by the thread that is downloading the range.
+     */
+    static class Hasher {
+        private final long start;
+        private final CRC32 crc32;
+        private final MessageDigest digest;
+        private long size;
+
+        private Hasher(long start, CRC32 crc32, MessageDigest digest) {
+            this.start = start;
+            this.crc32 = crc32;
+            this.digest = digest;
+        }
+
+        void update(byte[] buffer, int offset, int length) {
+            if (crc32 != null) {
+                crc32.update(buffer, offset, length);
+            } else {
+                digest.update(buffer, offset, length);
+            }
+            size += length;
+        }
+    }
+}
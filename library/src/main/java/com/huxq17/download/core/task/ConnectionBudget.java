@@ -0,0 +1,88 @@
+package com.huxq17.download.core.task;
+
+import com.huxq17.download.PumpFactory;
+import com.huxq17.download.core.service.IDownloadConfigService;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import okhttp3.HttpUrl;
+
+/**
+ * Count connections and their threads of all downloads,so the extra segment threads of a download
+ * are started only if total connections and connections to the same host are under limits.
+ * A download that can't get more connections downloads its segments by fewer threads,and a download
+ * waits for its first connection until other downloads release theirs.
+ */
+public class ConnectionBudget {
+    private static ConnectionBudget instance = new ConnectionBudget();
+    private final Map<String, Integer> hostConnections = new HashMap<>();
+    private int connectionCount;
+
+    private ConnectionBudget() {
+    }
+
+    public static ConnectionBudget getInstance() {
+        return instance;
+    }
+
+    public static String getHost(String url) {
+        HttpUrl httpUrl = HttpUrl.parse(url);
+        return httpUrl == null ? "" : httpUrl.host();
+    }
+
+    /**
+     * Acquire the first connection of download,wait until the connection can be opened.
+     *
+     * @throws InterruptedException if current thread is interrupted while waiting.
+     */
+    public synchronized void acquire(String host) throws InterruptedException {
+        while (!isAvailable(host)) {
+            wait();
+        }
+        add(host, 1);
+    }
+
+    /**
+     * Acquire an extra connection of download.
+     *
+     * @return true if the connection can be opened.
+     */
+    public synchronized boolean tryAcquire(String host) {
+        if (!isAvailable(host)) {
+            return false;
+        }
+        add(host, 1);
+        return true;
+    }
+
+    public synchronized void release(String host) {
+        add(host, -1);
+        notifyAll();
+    }
+
+    private boolean isAvailable(String host) {
+        IDownloadConfigService configService = PumpFactory.getService(IDownloadConfigService.class);
+        return connectionCount < configService.getMaxConnectionNumber()
+                && getConnectionCount(host) < configService.getMaxConnectionNumberPerHost();
+    }
+
+    public synchronized int getConnectionCount() {
+        return connectionCount;
+    }
+
+    public synchronized int getConnectionCount(String host) {
+        Integer count = hostConnections.get(host);
+        return count == null ? 0 : count;
+    }
+
+    private void add(String host, int delta) {
+        int count = getConnectionCount(host) + delta;
+        if (count > 0) {
+            hostConnections.put(host, count);
+        } else {
+            hostConnections.remove(host);
+        }
+        connectionCount += delta;
+    }
+}
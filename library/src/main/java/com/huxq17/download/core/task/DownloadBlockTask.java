@@ -9,26 +9,66 @@ import com.huxq17.download.PumpFactory;
 import com.huxq17.download.core.DownloadDetailsInfo;
 import com.huxq17.download.core.DownloadRequest;
 import com.huxq17.download.core.connection.DownloadConnection;
+import com.huxq17.download.core.connection.ReadableConnectionAdapter;
+import com.huxq17.download.core.connection.ReadableDownloadConnection;
 import com.huxq17.download.core.service.IDownloadConfigService;
 import com.huxq17.download.utils.FileUtil;
+import com.huxq17.download.utils.LogUtil;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonReadableChannelException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import okhttp3.Response;
 
 import static com.huxq17.download.ErrorCode.ERROR_FILE_OUT_LIMIT;
+import static com.huxq17.download.utils.Util.DOWNLOAD_BLOCK;
 import static com.huxq17.download.utils.Util.DOWNLOAD_PART;
+import static com.huxq17.download.utils.Util.closeQuietly;
 
 
 public class DownloadBlockTask extends Task {
-    private DownloadConnection connection;
+    private static final long BLOCK_CHECKPOINT_SIZE = 512 * 1024L;
+    /**
+     * Bytes transferred from network to file at most once,progress is reported after every transfer.
+     */
+    private static final int TRANSFER_SIZE = 64 * 1024;
+    private volatile ReadableDownloadConnection connection;
     private int blockId;
     private File tempFile;
     private DownloadDetailsInfo downloadInfo;
+    private DownloadRequest downloadRequest;
     private boolean isConnected;
+    /**
+     * Size of bytes before the completed position that the connected connection starts with.
+     */
+    private long connectedOverlap;
+    private volatile boolean isCancelRequested;
+    private FileChannel fileChannel;
+    private SegmentScheduler segmentScheduler;
+    private Segment firstSegment;
+    private AdaptiveThreadController threadController;
+    private AtomicLong progressCounter;
+    /**
+     * Buffer of bytes that are copied before written,so they can be hashed.
+     */
+    private byte[] transferBuffer;
+    /**
+     * Speed limiters of the current segment.
+     */
+    private RateLimiter[] rateLimiters;
+    /**
+     * Host of the connection budget that this task holds,it is released when task finishes.
+     */
+    private String connectionHost;
 
 
     public DownloadBlockTask(DownloadRequest downloadRequest, int blockId) {
@@ -36,28 +76,95 @@ public class DownloadBlockTask extends Task {
     }
 
     public DownloadBlockTask(DownloadRequest downloadRequest, int blockId, DownloadConnection connection) {
+        this.downloadRequest = downloadRequest;
         downloadInfo = downloadRequest.getDownloadInfo();
         isConnected = connection != null;
         if (connection == null) {
-            this.connection = PumpFactory.getService(IDownloadConfigService.class).getDownloadConnectionFactory().create(downloadRequest.getHttpRequestBuilder());
+            this.connection = createConnection();
         } else {
-            this.connection = connection;
+            this.connection = ReadableConnectionAdapter.wrap(connection);
         }
         this.blockId = blockId;
         calculateCompletedSize();
     }
 
+    /**
+     * Set the channel of preallocated download file,this block will write at its own offset.
+     */
+    public void setFileChannel(FileChannel fileChannel) {
+        this.fileChannel = fileChannel;
+    }
+
+    /**
+     * Download segments that dispatched by scheduler instead of a fixed block,segments are written
+     * into the preallocated download file if file channel is set,otherwise into their part files.
+     *
+     * @param firstSegment the segment that the connected connection belongs to,the connection
+     *                     will be closed if it is null.
+     */
+    public void setSegmentScheduler(SegmentScheduler segmentScheduler, Segment firstSegment) {
+        this.segmentScheduler = segmentScheduler;
+        this.firstSegment = firstSegment;
+    }
+
+    /**
+     * Set the size of completed bytes that the connected connection downloads again.
+     */
+    public void setConnectedOverlap(long connectedOverlap) {
+        this.connectedOverlap = connectedOverlap;
+    }
+
+    public void setConnectionHost(String connectionHost) {
+        this.connectionHost = connectionHost;
+    }
+
+    public void setThreadController(AdaptiveThreadController threadController) {
+        this.threadController = threadController;
+    }
+
     @Override
     public void cancel() {
+        isCancelRequested = true;
         if (currentThread != null) {
             currentThread.interrupt();
         }
         connection.cancel();
     }
 
+    /**
+     * The task may be cancelled before thread pool starts it.
+     */
+    @Override
+    protected boolean isCanceled() {
+        return isCancelRequested || super.isCanceled();
+    }
+
     @Override
     public void execute() {
-        DownloadTask downloadTask = downloadInfo.getDownloadTask();
+        try {
+            progressCounter = downloadInfo.getDownloadTask().createProgressCounter();
+            if (segmentScheduler != null) {
+                downloadSegments(downloadInfo.getDownloadTask());
+            } else {
+                downloadBlock(downloadInfo.getDownloadTask());
+            }
+            connection.close();
+        } finally {
+            releaseConnection();
+        }
+    }
+
+    /**
+     * Release the connection budget that this task holds,it's safe to be called more than once.
+     */
+    public synchronized void releaseConnection() {
+        if (connectionHost != null) {
+            ConnectionBudget.getInstance().release(connectionHost);
+            connectionHost = null;
+        }
+    }
+
+    private void downloadBlock(DownloadTask downloadTask) {
         long threadNum = downloadInfo.getThreadNum();
         long fileLength = downloadInfo.getContentLength();
         long startPosition = blockId * fileLength / threadNum + getCompletedSize();
@@ -71,29 +178,11 @@ public class DownloadBlockTask extends Task {
         if (startPosition < endPosition || downloadInfo.isChunked()) {
             try {
                 if (!isConnected) {
-                    DownloadProvider.CacheBean cacheBean = downloadInfo.getCacheBean();
-                    String eTag = cacheBean.eTag;
-                    String lastModified = cacheBean.lastModified;
                     connection.addHeader("Range", "bytes=" + startPosition + "-");
-                    if (!TextUtils.isEmpty(lastModified)) {
-                        connection.addHeader("If-Unmodified-Since", lastModified);
-                    }
-                    if (!TextUtils.isEmpty(eTag)) {
-                        connection.addHeader("If-Match", eTag);
-                    }
+                    addConditionHeaders(connection);
                     Response response = connection.connect();
-                    int code = response.code();
-                    if (code == HttpURLConnection.HTTP_PARTIAL) {
+                    if (checkResponse(response, downloadTask)) {
                         download(connection, downloadTask, startPosition, endPosition);
-                    } else if (code == HttpURLConnection.HTTP_PRECON_FAILED || code == 416) {
-                        if (downloadInfo.getErrorCode() == null) {
-                            downloadInfo.setForceRetry(true);
-                        }
-                        downloadInfo.setErrorCode(ErrorCode.ERROR_NETWORK_UNAVAILABLE);
-                        downloadTask.cancel();
-                    } else {
-                        downloadInfo.setErrorCode(ErrorCode.ERROR_NETWORK_UNAVAILABLE);
-                        downloadTask.cancel();
                     }
                 } else {
                     download(connection, downloadTask, startPosition, endPosition);
@@ -112,7 +201,7 @@ public class DownloadBlockTask extends Task {
                 }
             }
         } else if (startPosition == endPosition) {
-            downloadTask.onDownload(0);
+            downloadTask.onDownload(progressCounter, 0);
         } else if (startPosition > endPosition) {
             if (downloadInfo.getErrorCode() == null) {
                 downloadInfo.setForceRetry(true);
@@ -120,13 +209,47 @@ public class DownloadBlockTask extends Task {
             downloadTask.cancel();
             downloadInfo.setErrorCode(ERROR_FILE_OUT_LIMIT);
         }
-        connection.close();
     }
 
-    private void download(DownloadConnection connection, DownloadTask downloadTask,
+    private void addConditionHeaders(DownloadConnection connection) {
+        DownloadProvider.CacheBean cacheBean = downloadInfo.getCacheBean();
+        String eTag = cacheBean.eTag;
+        String lastModified = cacheBean.lastModified;
+        if (!TextUtils.isEmpty(lastModified)) {
+            connection.addHeader("If-Unmodified-Since", lastModified);
+        }
+        if (!TextUtils.isEmpty(eTag)) {
+            connection.addHeader("If-Match", eTag);
+        }
+    }
+
+    private boolean checkResponse(Response response, DownloadTask downloadTask) {
+        int code = response.code();
+        if (code == HttpURLConnection.HTTP_PARTIAL) {
+            return true;
+        } else if (code == HttpURLConnection.HTTP_PRECON_FAILED || code == 416) {
+            if (downloadInfo.getErrorCode() == null) {
+                downloadInfo.setForceRetry(true);
+            }
+            downloadInfo.setErrorCode(ErrorCode.ERROR_NETWORK_UNAVAILABLE);
+            downloadTask.cancel();
+        } else {
+            downloadInfo.setErrorCode(ErrorCode.ERROR_NETWORK_UNAVAILABLE);
+            downloadTask.cancel();
+        }
+        return false;
+    }
+
+    private void download(ReadableDownloadConnection connection, DownloadTask downloadTask,
                           long startPosition, long endPosition) throws IOException {
         int len;
+        rateLimiters = null;
         createTempFileIfNeed();
+        if (connectedOverlap > 0) {
+            //Part file is appended,so the overlap isn't checked.
+            readFully(connection, new byte[(int) connectedOverlap]);
+            connectedOverlap = 0;
+        }
         connection.prepareDownload(tempFile);
         byte[] buffer = new byte[8092];
         int byteCount = buffer.length;
@@ -135,40 +258,529 @@ public class DownloadBlockTask extends Task {
                 byteCount = (int) (endPosition - startPosition);
             }
         }
+        ChecksumVerifier checksumVerifier = downloadInfo.getChecksumVerifier();
+        ChecksumVerifier.Hasher hasher = checksumVerifier == null ? null :
+                checksumVerifier.createHasher(startPosition, 0);
         if (isCanceled()) return;
         while ((downloadInfo.isChunked() || startPosition < endPosition)
                 && (len = connection.downloadBuffer(buffer, 0, byteCount)) != -1 && !isCanceled()) {
             startPosition += len;
+            if (hasher != null) {
+                hasher.update(buffer, 0, len);
+            }
             if (!downloadInfo.isChunked()) {
                 long remainCount = endPosition - startPosition;
                 if (remainCount < byteCount) {
                     byteCount = (int) remainCount;
                 }
             }
-            if (!downloadTask.onDownload(len)) {
+            if (!downloadTask.onDownload(progressCounter, len) || !throttle(len, null)) {
                 break;
             }
         }
         connection.flushDownload();
     }
 
+    private void downloadSegments(DownloadTask downloadTask) {
+        Segment segment = firstSegment;
+        if (segment == null) {
+            if (isConnected) {
+                //The connected range has been downloaded.
+                connection.close();
+                isConnected = false;
+            }
+            segment = segmentScheduler.poll();
+        }
+        while (segment != null && !isCanceled()) {
+            boolean isSegmentCompleted = false;
+            try {
+                isSegmentCompleted = downloadSegment(downloadTask, segment);
+            } catch (IOException e) {
+                if (!isCanceled()) {
+                    e.printStackTrace();
+                    downloadInfo.setErrorCode(ErrorCode.ERROR_NETWORK_UNAVAILABLE);
+                }
+            }
+            if (!isSegmentCompleted) {
+                segmentScheduler.release(segment);
+                break;
+            }
+            segment = segmentScheduler.poll();
+        }
+    }
+
+    /**
+     * Download the segment until its end,the end may be reduced by other threads meanwhile.
+     *
+     * @return true if the segment is downloaded completely.
+     */
+    private boolean downloadSegment(DownloadTask downloadTask, Segment segment) throws IOException {
+        ReadableDownloadConnection connection = this.connection;
+        long overlap;
+        if (isConnected) {
+            isConnected = false;
+            overlap = connectedOverlap;
+            connectedOverlap = 0;
+        } else {
+            overlap = getOverlap(segment);
+            connection = createSegmentConnection(segment, overlap);
+            if (isCanceled()) return false;
+            if (!checkResponse(connection.connect(), downloadTask)) {
+                connection.close();
+                return false;
+            }
+        }
+        SegmentWriter segmentWriter = new SegmentWriter(connection, segment);
+        try {
+            segmentWriter.open(overlap);
+            long len;
+            while (!isCanceled() && (len = segmentWriter.transfer()) > 0) {
+                if (!onTransferred(downloadTask, len) || !throttle(len, segmentWriter)) {
+                    return false;
+                }
+            }
+            return segmentWriter.finish();
+        } finally {
+            segmentWriter.close();
+        }
+    }
+
+    private long getOverlap(Segment segment) {
+        return Math.min(PumpFactory.getService(IDownloadConfigService.class).getResumeOverlapSize(),
+                segment.getCompletedSize());
+    }
+
+    private ReadableDownloadConnection createSegmentConnection(Segment segment, long overlap) {
+        ReadableDownloadConnection connection = createConnection();
+        this.connection = connection;
+        connection.addHeader("Range", "bytes=" + (segment.getPosition() - overlap) + "-" + (segment.getEnd() - 1));
+        addConditionHeaders(connection);
+        return connection;
+    }
+
+    /**
+     * @return false if download should stop.
+     */
+    private boolean onTransferred(DownloadTask downloadTask, long length) {
+        if (!downloadTask.onDownload(progressCounter, length)) {
+            return false;
+        }
+        if (threadController != null) {
+            threadController.onDownload((int) length);
+        }
+        return true;
+    }
+
+    /**
+     * Write bytes of the connected segment into the download file or its part file.
+     */
+    private class SegmentWriter {
+        private final ReadableDownloadConnection connection;
+        private final Segment segment;
+        private final boolean isPreallocated;
+        private FileChannel channel;
+        private long channelOffset;
+        private long uncheckedSize;
+        private ChecksumVerifier.Hasher hasher;
+        /**
+         * Pipeline that writes buffers in background,or null if bytes are written by current thread.
+         */
+        private WritePipeline writePipeline;
+        private String volume;
+        private WritePipeline.PendingWrites pendingWrites;
+        private byte[] writeBuffer;
+        private int writeBufferSize;
+        /**
+         * Position of the write buffer in the channel.
+         */
+        private long writeBufferPosition;
+        /**
+         * Completed size of segment whose bytes are surely written,segment is rewound to it if a queued
+         * write fails,so the bytes that are read into buffers but not written are downloaded again.
+         */
+        private long writtenSize;
+
+        SegmentWriter(ReadableDownloadConnection connection, Segment segment) {
+            this.connection = connection;
+            this.segment = segment;
+            rateLimiters = null;
+            isPreallocated = fileChannel != null;
+        }
+
+        void open(long overlap) throws IOException {
+            channel = fileChannel;
+            File file;
+            if (isPreallocated) {
+                file = downloadInfo.getDownloadFile().getFile();
+                segment.openRecord(segmentScheduler.getTempDir());
+            } else {
+                //Length of part file is the completed size of segment,so it doesn't need record.
+                file = segmentScheduler.getPartFile(segment);
+                channel = new RandomAccessFile(file, "rw").getChannel();
+            }
+            //Part file starts at the start of segment.
+            channelOffset = isPreallocated ? 0 : segment.getStart();
+            if (!isPreallocated) {
+                long partOverlap = getOverlapInPart(segment, overlap);
+                if (partOverlap < overlap) {
+                    //Bytes before the part file can't be compared,so they are skipped.
+                    readFully(connection, new byte[(int) (overlap - partOverlap)]);
+                    overlap = partOverlap;
+                }
+            }
+            if (overlap > 0 && checkOverlap(connection, channel, segment.getPosition() - overlap - channelOffset,
+                    (int) overlap, segment)) {
+                //The hasher has hashed the bytes that are written again.
+                discardHasher(segment);
+            }
+            hasher = getHasher(segment);
+            writtenSize = segment.getCompletedSize();
+            if (PumpFactory.getService(IDownloadConfigService.class).isWritePipeline()) {
+                writePipeline = WritePipeline.getInstance();
+                volume = WritePipeline.getVolume(file == null ? downloadInfo.getFilePath() : file.getPath());
+                pendingWrites = new WritePipeline.PendingWrites();
+            }
+        }
+
+        /**
+         * Transfer bytes of response body into file once.
+         *
+         * @return the number of bytes transferred,or 0 if the segment reaches its end.
+         */
+        long transfer() throws IOException {
+            int byteCount = segment.nextReadSize(RateLimiter.getReadSize(TRANSFER_SIZE, getRateLimiters()));
+            if (byteCount <= 0) {
+                return 0;
+            }
+            long position = segment.getPosition() - channelOffset;
+            long len;
+            if (writePipeline != null && acquireWriteBuffer(position)) {
+                len = readIntoWriteBuffer(byteCount);
+            } else if (hasher == null) {
+                len = connection.transferTo(channel, position, byteCount);
+            } else {
+                len = transferByBuffer(connection, channel, position, byteCount, hasher);
+            }
+            if (len == -1) {
+                throw new IOException("Unexpected end of stream, " + segment);
+            }
+            segment.download(len);
+            if (isPreallocated) {
+                uncheckedSize += len;
+                if (uncheckedSize >= BLOCK_CHECKPOINT_SIZE) {
+                    uncheckedSize = 0;
+                    checkpoint();
+                }
+            }
+            return len;
+        }
+
+        /**
+         * Take a buffer of pipeline if this writer doesn't hold one.
+         *
+         * @return false if buffer memory is used up,and bytes are written by current thread this time.
+         */
+        private boolean acquireWriteBuffer(long position) {
+            if (writeBuffer == null) {
+                writeBuffer = writePipeline.acquireBuffer();
+                if (writeBuffer == null) {
+                    return false;
+                }
+                writeBufferSize = 0;
+                writeBufferPosition = position;
+            }
+            return true;
+        }
+
+        /**
+         * Read once into the write buffer,it is queued to write after it is full.
+         *
+         * @return the number of bytes read, or -1 if the response body is exhausted.
+         */
+        private int readIntoWriteBuffer(int byteCount) throws IOException {
+            int len = connection.read(writeBuffer, writeBufferSize,
+                    Math.min(byteCount, writeBuffer.length - writeBufferSize));
+            if (len == -1) {
+                return -1;
+            }
+            if (hasher != null) {
+                hasher.update(writeBuffer, writeBufferSize, len);
+            }
+            writeBufferSize += len;
+            if (writeBufferSize == writeBuffer.length) {
+                flushWriteBuffer();
+            }
+            return len;
+        }
+
+        /**
+         * Queue the write buffer without waiting for it,so the buffer isn't held while not reading.
+         */
+        private void flushWriteBuffer() {
+            if (writeBuffer == null) {
+                return;
+            }
+            if (writeBufferSize > 0) {
+                writePipeline.write(volume, channel, writeBufferPosition, writeBuffer, writeBufferSize, pendingWrites);
+            } else {
+                writePipeline.releaseBuffer(writeBuffer);
+            }
+            writeBuffer = null;
+        }
+
+        /**
+         * Wait until all read bytes are written,record of segment must not contain bytes that aren't on disk.
+         */
+        private void awaitWritten() throws IOException {
+            if (writePipeline != null) {
+                flushWriteBuffer();
+                pendingWrites.await();
+                writtenSize = segment.getCompletedSize();
+            }
+        }
+
+        /**
+         * Roll segment and progress back to the written bytes after a queued write failed,and cut the
+         * part file there,its length is the completed size when it is resumed.
+         */
+        private void rewind() {
+            uncheckedSize = 0;
+            long length = segment.rewind(writtenSize);
+            if (length <= 0) {
+                return;
+            }
+            LogUtil.w("Rewind " + length + " bytes of " + segment + " that failed to be written.");
+            progressCounter.addAndGet(-length);
+            discardHasher(segment);
+            if (!isPreallocated) {
+                try {
+                    channel.truncate(writtenSize);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        /**
+         * Record the progress of segment after its bytes are forced to disk,so the record never
+         * counts bytes that are lost by power failure.
+         */
+        private void checkpoint() throws IOException {
+            awaitWritten();
+            channel.force(false);
+            segment.checkpoint();
+        }
+
+        /**
+         * @return true if the segment is downloaded completely.
+         */
+        boolean finish() throws IOException {
+            if (isPreallocated) {
+                checkpoint();
+                uncheckedSize = 0;
+            } else {
+                awaitWritten();
+            }
+            return segment.getRemaining() == 0;
+        }
+
+        void close() {
+            try {
+                awaitWritten();
+            } catch (IOException e) {
+                //Bytes that failed to be written aren't recorded.
+                rewind();
+            }
+            if (uncheckedSize > 0) {
+                try {
+                    channel.force(false);
+                    segment.checkpoint();
+                } catch (IOException ignore) {
+                }
+            }
+            segment.closeRecord();
+            if (!isPreallocated) {
+                closeQuietly(channel);
+            }
+            connection.close();
+        }
+    }
+
+    /**
+     * Compare the overlap that is downloaded again with bytes on disk,bytes from the first
+     * different byte were torn by crash and are written again.
+     *
+     * @param position position of overlap in the channel.
+     * @return true if bytes of the overlap are written again.
+     */
+    private boolean checkOverlap(ReadableDownloadConnection connection, FileChannel channel, long position,
+                              int overlap, Segment segment) throws IOException {
+        byte[] downloadedBytes = new byte[overlap];
+        readFully(connection, downloadedBytes);
+        ByteBuffer diskBytes = ByteBuffer.allocate(overlap);
+        try {
+            while (diskBytes.hasRemaining()) {
+                if (channel.read(diskBytes, position + diskBytes.position()) <= 0) {
+                    break;
+                }
+            }
+        } catch (NonReadableChannelException ignore) {
+            //Channel of MediaStore file can't be read,so the whole overlap is written again.
+        }
+        int length = diskBytes.position();
+        byte[] bytes = diskBytes.array();
+        int offset = 0;
+        while (offset < length && bytes[offset] == downloadedBytes[offset]) {
+            offset++;
+        }
+        if (offset == overlap) {
+            return false;
+        }
+        LogUtil.w("Write the last " + (overlap - offset) + " bytes of " + segment + " again.");
+        ByteBuffer byteBuffer = ByteBuffer.wrap(downloadedBytes, offset, overlap - offset);
+        position += offset;
+        while (byteBuffer.hasRemaining()) {
+            position += channel.write(byteBuffer, position);
+        }
+        return true;
+    }
+
+    /**
+     * The connected overlap may start before the part file of segment,when the connected position is
+     * the end of the previous part file and the segment hasn't been downloaded.
+     *
+     * @return size of the overlap that lies in the part file of segment.
+     */
+    static long getOverlapInPart(Segment segment, long overlap) {
+        return Math.max(0, Math.min(overlap, segment.getPosition() - segment.getStart()));
+    }
+
+    private static void readFully(ReadableDownloadConnection connection, byte[] buffer) throws IOException {
+        int offset = 0;
+        while (offset < buffer.length) {
+            int len = connection.read(buffer, offset, buffer.length - offset);
+            if (len == -1) {
+                throw new EOFException();
+            }
+            offset += len;
+        }
+    }
+
+    /**
+     * Limiters are resolved once per segment,so a tag limit that is set meanwhile takes effect
+     * from the next segment.
+     */
+    private RateLimiter[] getRateLimiters() {
+        if (rateLimiters == null) {
+            rateLimiters = new RateLimiter[]{RateLimiter.getGlobal(), RateLimiter.getTagLimiter(downloadRequest.getTag()),
+                    downloadRequest.getRateLimiter()};
+        }
+        return rateLimiters;
+    }
+
+    /**
+     * Wait until downloaded bytes are allowed by speed limits.
+     *
+     * @param segmentWriter writer whose partly filled buffer is queued before waiting,so the buffer
+     *                      isn't held while sleeping,or null.
+     * @return false if thread is interrupted while waiting.
+     */
+    private boolean throttle(long length, SegmentWriter segmentWriter) {
+        long waitNanos = RateLimiter.reserve(length, getRateLimiters());
+        if (waitNanos <= 0) {
+            return true;
+        }
+        if (segmentWriter != null) {
+            segmentWriter.flushWriteBuffer();
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private ChecksumVerifier.Hasher getHasher(Segment segment) {
+        ChecksumVerifier checksumVerifier = downloadInfo.getChecksumVerifier();
+        ChecksumVerifier.Hasher hasher = segment.getHasher();
+        if (hasher == null && checksumVerifier != null) {
+            hasher = checksumVerifier.createHasher(segment.getStart(), segment.getCompletedSize());
+            segment.setHasher(hasher);
+        }
+        return hasher;
+    }
+
+    /**
+     * Discard the hasher of segment after its position is rewound or its bytes are written again,
+     * the segment isn't hashed any more and its range is read back when verified.
+     */
+    private void discardHasher(Segment segment) {
+        ChecksumVerifier.Hasher hasher = segment.getHasher();
+        if (hasher != null) {
+            downloadInfo.getChecksumVerifier().discard(hasher);
+            segment.setHasher(null);
+        }
+    }
+
+    /**
+     * Transfer bytes of a single read through a buffer,so they can be hashed before written,it costs
+     * a memory copy instead of reading them from file again when download is verified.
+     *
+     * @param hasher hasher of the segment,or null if bytes aren't hashed.
+     * @return the number of bytes transferred, or -1 if the response body is exhausted.
+     */
+    private long transferByBuffer(ReadableDownloadConnection connection, FileChannel channel, long position,
+                                  int byteCount, ChecksumVerifier.Hasher hasher) throws IOException {
+        if (transferBuffer == null) {
+            transferBuffer = new byte[TRANSFER_SIZE];
+        }
+        int len = connection.read(transferBuffer, 0, byteCount);
+        if (len == -1) {
+            return -1;
+        }
+        ByteBuffer byteBuffer = ByteBuffer.wrap(transferBuffer, 0, len);
+        while (byteBuffer.hasRemaining()) {
+            position += channel.write(byteBuffer, position);
+        }
+        if (hasher != null) {
+            hasher.update(transferBuffer, 0, len);
+        }
+        return len;
+    }
+
+    private ReadableDownloadConnection createConnection() {
+        return ReadableConnectionAdapter.wrap(PumpFactory.getService(IDownloadConfigService.class)
+                .getDownloadConnectionFactory().create(downloadRequest.getHttpRequestBuilder()));
+    }
+
     private void calculateCompletedSize() {
         File tempDir = downloadInfo.getTempDir();
         if (tempDir != null) {
-            tempFile = new File(tempDir, DOWNLOAD_PART + blockId);
+            tempFile = new File(tempDir, getTempFileName());
         }
     }
 
+    private String getTempFileName() {
+        return (downloadInfo.isPreallocated() ? DOWNLOAD_BLOCK : DOWNLOAD_PART) + blockId;
+    }
+
     private void createTempFileIfNeed() {
+        calculateCompletedSize();
         if (tempFile != null && tempFile.exists()) return;
 
         File tempDir = downloadInfo.getTempDir();
-        tempFile = new File(tempDir, DOWNLOAD_PART + blockId);
+        tempFile = new File(tempDir, getTempFileName());
         FileUtil.createNewFile(tempFile);
     }
 
     public long getCompletedSize() {
+        calculateCompletedSize();
         if (tempFile == null) return 0L;
+        if (downloadInfo.isPreallocated()) {
+            return Segment.readCompletedSize(tempFile);
+        }
         return tempFile.length();
     }
 
@@ -4,8 +4,10 @@ package com.huxq17.download.core.task;
 import android.text.TextUtils;
 
 import com.huxq17.download.PumpFactory;
+import com.huxq17.download.TaskManager;
 import com.huxq17.download.core.DownloadDetailsInfo;
 import com.huxq17.download.core.DownloadInfo;
+import com.huxq17.download.core.DownloadInfoManager;
 import com.huxq17.download.core.DownloadInterceptor;
 import com.huxq17.download.core.DownloadRequest;
 import com.huxq17.download.core.RealDownloadChain;
@@ -15,18 +17,39 @@ import com.huxq17.download.core.interceptor.RetryInterceptor;
 import com.huxq17.download.core.service.IDownloadConfigService;
 import com.huxq17.download.core.service.IMessageCenter;
 import com.huxq17.download.db.DBService;
+import com.huxq17.download.db.ProgressJournal;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class DownloadTask extends Task {
+    /**
+     * Interval of collecting progress from download threads.
+     */
+    private static final long PROGRESS_INTERVAL = 100;
+    /**
+     * Interval of recording completed size into progress journal.
+     */
+    private static final long JOURNAL_INTERVAL = 1000;
     private final DownloadDetailsInfo downloadInfo;
     private final Object lock;
     private DBService dbService;
     private IMessageCenter messageCenter;
     private int lastProgress;
+    private long lastJournalTime;
     private DownloadRequest downloadRequest;
     private ConnectInterceptor connectInterceptor;
+    /**
+     * Every download thread adds downloaded length to its own counter without lock.
+     */
+    private final List<AtomicLong> progressCounters = new CopyOnWriteArrayList<>();
+    /**
+     * Whether download is stopped by a download with higher priority,it's shown as waiting.
+     */
+    private boolean isPreempted;
 
     public DownloadTask(DownloadRequest downloadRequest) {
         if (downloadRequest != null) {
@@ -34,6 +57,7 @@ public class DownloadTask extends Task {
             this.downloadInfo = downloadRequest.getDownloadInfo();
             lock = downloadInfo;
             downloadInfo.setDownloadTask(this);
+            DownloadInfoManager.getInstance().updatePinned(downloadInfo);
             dbService = DBService.getInstance();
             messageCenter = PumpFactory.getService(IMessageCenter.class);
             downloadInfo.clearErrorCode();
@@ -81,10 +105,18 @@ public class DownloadTask extends Task {
         if (isRunning()) {
             downloadInfo.setStatus(DownloadInfo.Status.RUNNING);
             notifyProgressChanged(downloadInfo);
+            ScheduledFuture<?> progressFuture = TaskManager.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    collectProgress();
+                }
+            }, PROGRESS_INTERVAL);
             downloadWithDownloadChain();
+            progressFuture.cancel(false);
             notifyProgressChanged(downloadInfo);
         }
         downloadInfo.setDownloadTask(null);
+        DownloadInfoManager.getInstance().updatePinned(downloadInfo);
     }
 
     private void downloadWithDownloadChain() {
@@ -98,16 +130,65 @@ public class DownloadTask extends Task {
         realDownloadChain.proceed(downloadRequest);
         synchronized (lock) {
             if (downloadInfo.getStatus() == DownloadInfo.Status.PAUSING) {
-                downloadInfo.setStatus(DownloadInfo.Status.PAUSED);
+                downloadInfo.setStatus(isPreempted ? DownloadInfo.Status.WAIT : DownloadInfo.Status.PAUSED);
             }
         }
         updateInfo();
+        recordProgress();
     }
 
-    boolean onDownload(int length) {
+    /**
+     * Record completed size so progress can be restored without reading temp files.
+     */
+    private void recordProgress() {
+        ProgressJournal progressJournal = ProgressJournal.getInstance();
+        if (progressJournal == null) {
+            return;
+        }
+        long completedSize;
+        DownloadInfo.Status status;
         synchronized (lock) {
-            if (!isRunning()) {
-                return false;
+            completedSize = downloadInfo.getCompletedSize();
+            status = downloadInfo.getStatus();
+        }
+        if (status == DownloadInfo.Status.FINISHED || status == DownloadInfo.Status.DELETED) {
+            progressJournal.remove(downloadInfo.getId());
+        } else {
+            progressJournal.record(downloadInfo.getId(), completedSize);
+        }
+    }
+
+    AtomicLong createProgressCounter() {
+        AtomicLong progressCounter = new AtomicLong();
+        progressCounters.add(progressCounter);
+        return progressCounter;
+    }
+
+    /**
+     * Called by download threads after downloaded,it only adds length to the counter of thread.
+     * The length has been written,so it's counted even if download is stopping.
+     *
+     * @return false if download should stop.
+     */
+    boolean onDownload(AtomicLong progressCounter, long length) {
+        progressCounter.addAndGet(length);
+        return isRunning();
+    }
+
+    /**
+     * Collect the downloaded length of all threads and notify if progress is changed,
+     * the drained length is always added to completed size,only the notification is skipped
+     * if download isn't running.Counters are drained under the lock,so a flush never returns while
+     * the scheduled collection holds drained length that hasn't been added.
+     */
+    private void collectProgress() {
+        synchronized (lock) {
+            long length = 0;
+            for (AtomicLong progressCounter : progressCounters) {
+                length += progressCounter.getAndSet(0);
+            }
+            if (length == 0) {
+                return;
             }
             downloadInfo.download(length);
             int progress = (int) (downloadInfo.getCompletedSize() * 1f / downloadInfo.getContentLength() * 100);
@@ -115,14 +196,26 @@ public class DownloadTask extends Task {
                 progress = 0;
             }
             downloadInfo.setProgress(progress);
-            if (progress != lastProgress) {
+            if (progress != lastProgress && isRunning()) {
                 if (progress != 100) {
                     lastProgress = progress;
                     notifyProgressChanged(downloadInfo);
                 }
             }
         }
-        return true;
+        long currentTime = System.currentTimeMillis();
+        if (currentTime - lastJournalTime >= JOURNAL_INTERVAL) {
+            lastJournalTime = currentTime;
+            recordProgress();
+        }
+    }
+
+    /**
+     * Collect progress of finished download threads, so completed size is exact.
+     */
+    public void flushProgress() {
+        collectProgress();
+        progressCounters.clear();
     }
 
     public void notifyProgressChanged(DownloadDetailsInfo downloadInfo) {
@@ -136,6 +229,16 @@ public class DownloadTask extends Task {
 
     public void pauseDownload() {
         synchronized (lock) {
+            if (isPreempted) {
+                //It is stopping or stopped already,so it's only not submitted again.
+                isPreempted = false;
+                DownloadInfo.Status status = downloadInfo.getStatus();
+                if (status == DownloadInfo.Status.PAUSING || status == DownloadInfo.Status.WAIT) {
+                    downloadInfo.setStatus(DownloadInfo.Status.PAUSED);
+                    notifyProgressChanged(downloadInfo);
+                    return;
+                }
+            }
             if (isRunning()) {
                 downloadInfo.setStatus(DownloadInfo.Status.PAUSING);
                 notifyProgressChanged(downloadInfo);
@@ -144,6 +247,38 @@ public class DownloadTask extends Task {
         }
     }
 
+    /**
+     * Stop download for a download with higher priority,listeners still see it waiting
+     * until it is submitted again by {@link #takePreempted()}.
+     */
+    public void preemptDownload() {
+        synchronized (lock) {
+            //Download that hasn't started is left to run,it will be stopped when it's the lowest again.
+            if (downloadInfo.getStatus() == DownloadInfo.Status.RUNNING) {
+                isPreempted = true;
+                downloadInfo.setStatus(DownloadInfo.Status.PAUSING);
+                cancel();
+            }
+        }
+    }
+
+    /**
+     * @return true if download has been preempted and stopped,it should be submitted again.
+     */
+    public boolean takePreempted() {
+        synchronized (lock) {
+            boolean preempted = isPreempted && downloadInfo.getStatus() == DownloadInfo.Status.WAIT;
+            isPreempted = false;
+            return preempted;
+        }
+    }
+
+    public boolean isPreempted() {
+        synchronized (lock) {
+            return isPreempted;
+        }
+    }
+
     public void stopDownload() {
         synchronized (lock) {
             if (downloadInfo.getStatus().shouldStop()) {
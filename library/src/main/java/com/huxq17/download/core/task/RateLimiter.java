@@ -0,0 +1,143 @@
+package com.huxq17.download.core.task;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket that limits download speed,its rate can be changed at any time.
+ * Download threads reserve bytes in the order they arrive and sleep outside of the lock,
+ * so segments of downloads take turns instead of waiting for each other.
+ */
+public class RateLimiter {
+    /**
+     * Bytes that can be read at once is the bytes of 1/READS_PER_SECOND second,so reads of
+     * segments interleave smoothly.
+     */
+    private static final int READS_PER_SECOND = 20;
+    private static final int MIN_READ_SIZE = 1024;
+    /**
+     * Tokens saved while idle are at most the bytes of 1/BURST_PER_SECOND second.
+     */
+    private static final int BURST_PER_SECOND = 10;
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final RateLimiter globalLimiter = new RateLimiter();
+    private static final ConcurrentHashMap<String, RateLimiter> tagLimiters = new ConcurrentHashMap<>();
+    private volatile long bytesPerSecond;
+    private double tokens;
+    private long lastTime;
+
+    public RateLimiter() {
+        this(0);
+    }
+
+    /**
+     * @param bytesPerSecond max bytes per second,0 means no limit.
+     */
+    public RateLimiter(long bytesPerSecond) {
+        setBytesPerSecond(bytesPerSecond);
+    }
+
+    public static RateLimiter getGlobal() {
+        return globalLimiter;
+    }
+
+    /**
+     * @return limiter of downloads with the tag,or null if the tag isn't limited.
+     */
+    public static RateLimiter getTagLimiter(String tag) {
+        return tagLimiters.get(tag);
+    }
+
+    /**
+     * @param bytesPerSecond max bytes per second of downloads with the tag,0 means no limit and
+     *                       the limiter of tag is removed.
+     */
+    public static void setTagBytesPerSecond(String tag, long bytesPerSecond) {
+        if (bytesPerSecond <= 0) {
+            RateLimiter rateLimiter = tagLimiters.remove(tag);
+            if (rateLimiter != null) {
+                //Segments that resolved it keep it until they finish.
+                rateLimiter.setBytesPerSecond(0);
+            }
+            return;
+        }
+        RateLimiter rateLimiter = tagLimiters.get(tag);
+        if (rateLimiter == null) {
+            rateLimiter = new RateLimiter();
+            RateLimiter lastLimiter = tagLimiters.putIfAbsent(tag, rateLimiter);
+            if (lastLimiter != null) {
+                rateLimiter = lastLimiter;
+            }
+        }
+        rateLimiter.setBytesPerSecond(bytesPerSecond);
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public synchronized void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = Math.max(bytesPerSecond, 0);
+        tokens = 0;
+        lastTime = System.nanoTime();
+    }
+
+    /**
+     * Reserve bytes that have been read or will be read.
+     *
+     * @return nanoseconds to wait until the bytes are allowed.
+     */
+    synchronized long reserve(long bytes) {
+        long bytesPerSecond = this.bytesPerSecond;
+        if (bytesPerSecond <= 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        double maxTokens = (double) bytesPerSecond / BURST_PER_SECOND;
+        tokens = Math.min(maxTokens, tokens + (double) (now - lastTime) * bytesPerSecond / NANOS_PER_SECOND);
+        lastTime = now;
+        tokens -= bytes;
+        return tokens >= 0 ? 0 : (long) (-tokens * NANOS_PER_SECOND / bytesPerSecond);
+    }
+
+    /**
+     * Reserve bytes from every limiter and sleep until all of them allow.
+     *
+     * @param rateLimiters limiters,null is ignored.
+     */
+    public static void acquire(long bytes, RateLimiter... rateLimiters) throws InterruptedException {
+        long waitNanos = reserve(bytes, rateLimiters);
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Reserve bytes from every limiter without waiting,so the caller can release what it holds before sleeping.
+     *
+     * @return nanoseconds to wait until all of them allow.
+     */
+    static long reserve(long bytes, RateLimiter... rateLimiters) {
+        long waitNanos = 0;
+        for (RateLimiter rateLimiter : rateLimiters) {
+            if (rateLimiter != null) {
+                waitNanos = Math.max(waitNanos, rateLimiter.reserve(bytes));
+            }
+        }
+        return waitNanos;
+    }
+
+    /**
+     * @return bytes that should be read at most once under these limiters.
+     */
+    public static int getReadSize(int maxSize, RateLimiter... rateLimiters) {
+        int readSize = maxSize;
+        for (RateLimiter rateLimiter : rateLimiters) {
+            long bytesPerSecond = rateLimiter == null ? 0 : rateLimiter.bytesPerSecond;
+            if (bytesPerSecond > 0) {
+                readSize = (int) Math.min(readSize, Math.max(bytesPerSecond / READS_PER_SECOND, MIN_READ_SIZE));
+            }
+        }
+        return readSize;
+    }
+}
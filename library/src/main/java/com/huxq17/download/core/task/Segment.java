@@ -0,0 +1,201 @@
+package com.huxq17.download.core.task;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static com.huxq17.download.utils.Util.DOWNLOAD_BLOCK;
+import static com.huxq17.download.utils.Util.closeQuietly;
+
+/**
+ * A range [start, end) of the preallocated download file, it's end may be reduced when
+ * the tail is stolen by another download thread.
+ */
+public class Segment {
+    /**
+     * Record file of segment is [start, end, completedSize].
+     */
+    static final int RECORD_LENGTH = 24;
+    private final int id;
+    private final long start;
+    private long end;
+    private long completedSize;
+    /**
+     * The end of bytes that are reading now,they can't be stolen.
+     */
+    private long readingEnd;
+    private boolean assigned;
+    private RandomAccessFile record;
+    private ChecksumVerifier.Hasher hasher;
+
+    Segment(int id, long start, long end, long completedSize) {
+        this.id = id;
+        this.start = start;
+        this.end = end;
+        this.completedSize = completedSize;
+        this.readingEnd = start + completedSize;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public synchronized long getEnd() {
+        return end;
+    }
+
+    public synchronized long getCompletedSize() {
+        return completedSize;
+    }
+
+    public synchronized long getPosition() {
+        return start + completedSize;
+    }
+
+    public synchronized long getRemaining() {
+        return end - start - completedSize;
+    }
+
+    synchronized boolean isAssigned() {
+        return assigned;
+    }
+
+    synchronized void setAssigned(boolean assigned) {
+        this.assigned = assigned;
+    }
+
+    /**
+     * @return hasher of bytes that are downloaded from start in this session,or null.
+     */
+    ChecksumVerifier.Hasher getHasher() {
+        return hasher;
+    }
+
+    void setHasher(ChecksumVerifier.Hasher hasher) {
+        this.hasher = hasher;
+    }
+
+    synchronized void setEnd(long end) {
+        this.end = end;
+        if (completedSize > end - start) {
+            completedSize = end - start;
+        }
+        readingEnd = start + completedSize;
+    }
+
+    /**
+     * Return the byte count that can be read at most this time.
+     */
+    synchronized int nextReadSize(int maxSize) {
+        long remaining = end - start - completedSize;
+        int size = remaining < maxSize ? (int) remaining : maxSize;
+        readingEnd = start + completedSize + size;
+        return size;
+    }
+
+    synchronized void download(long length) {
+        completedSize += length;
+        readingEnd = start + completedSize;
+    }
+
+    /**
+     * Move the position back to the bytes that are surely written,bytes after it are downloaded again.
+     *
+     * @return size of bytes that are rolled back.
+     */
+    synchronized long rewind(long completedSize) {
+        long length = this.completedSize - completedSize;
+        if (length <= 0) {
+            return 0;
+        }
+        this.completedSize = completedSize;
+        readingEnd = start + completedSize;
+        return length;
+    }
+
+    /**
+     * Split the unread half of this segment into a new segment.
+     *
+     * @return the new segment, or null if remaining size is less than double of minSize.
+     */
+    synchronized Segment split(int newId, long minSize) {
+        long from = Math.max(start + completedSize, readingEnd);
+        long remaining = end - from;
+        if (remaining < minSize * 2) {
+            return null;
+        }
+        long middle = from + remaining / 2;
+        Segment segment = new Segment(newId, middle, end, 0);
+        end = middle;
+        return segment;
+    }
+
+    void openRecord(File tempDir) throws IOException {
+        record = new RandomAccessFile(new File(tempDir, DOWNLOAD_BLOCK + id), "rw");
+        record.setLength(RECORD_LENGTH);
+        record.seek(0);
+        record.writeLong(start);
+        checkpoint();
+    }
+
+    /**
+     * Save end and completed size,so the segment can be resumed.
+     */
+    void checkpoint() throws IOException {
+        long end;
+        long completedSize;
+        synchronized (this) {
+            end = this.end;
+            completedSize = this.completedSize;
+        }
+        record.seek(8);
+        record.writeLong(end);
+        record.writeLong(completedSize);
+    }
+
+    void closeRecord() {
+        closeQuietly(record);
+        record = null;
+    }
+
+    /**
+     * Read record of segment from file.
+     *
+     * @return [start, end, completedSize] or null if the record is broken.
+     */
+    static long[] readRecord(File recordFile) {
+        if (recordFile.length() < RECORD_LENGTH) {
+            return null;
+        }
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(recordFile, "r");
+            return new long[]{randomAccessFile.readLong(), randomAccessFile.readLong(), randomAccessFile.readLong()};
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            closeQuietly(randomAccessFile);
+        }
+    }
+
+    /**
+     * Read the completed size that recorded by the segment file of preallocated download.
+     *
+     * @param recordFile the record file.
+     * @return completed size of this segment.
+     */
+    public static long readCompletedSize(File recordFile) {
+        long[] record = readRecord(recordFile);
+        return record == null ? 0L : record[2];
+    }
+
+    @Override
+    public String toString() {
+        return "Segment{id=" + id + ", start=" + start + ", end=" + getEnd() + ", completedSize=" + getCompletedSize() + '}';
+    }
+}
@@ -0,0 +1,292 @@
+package com.huxq17.download.core.task;
+
+import android.util.SparseArray;
+
+import com.huxq17.download.db.DBService;
+import com.huxq17.download.utils.FileUtil;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static com.huxq17.download.utils.Util.DOWNLOAD_BLOCK;
+import static com.huxq17.download.utils.Util.DOWNLOAD_PART;
+
+/**
+ * Dispatch segments of the download file to download threads,a thread that has nothing to
+ * download will steal the tail of the largest remaining segment.
+ * Segments of preallocated download are recorded in block files,otherwise every segment is
+ * downloaded into its own part file and its range is recorded in database.
+ */
+public class SegmentScheduler {
+    private final List<Segment> segments = new ArrayList<>();
+    private final String downloadId;
+    private final File tempDir;
+    private final long minSegmentSize;
+    private int nextId;
+
+    /**
+     * Create scheduler of preallocated download.
+     */
+    public SegmentScheduler(File tempDir, long contentLength, int threadNum, long minSegmentSize) {
+        this(null, tempDir, contentLength, threadNum, minSegmentSize);
+    }
+
+    /**
+     * Create scheduler that downloads segments into part files.
+     *
+     * @param downloadId id of download,it's segments are recorded in database.
+     */
+    public SegmentScheduler(String downloadId, File tempDir, long contentLength, int threadNum, long minSegmentSize) {
+        this.downloadId = downloadId;
+        this.tempDir = tempDir;
+        this.minSegmentSize = minSegmentSize;
+        if (downloadId == null) {
+            loadSegments(loadBlockRecords(contentLength), contentLength);
+        } else {
+            loadSegments(loadPartRecords(contentLength), contentLength);
+        }
+        if (segments.isEmpty()) {
+            for (int i = 0; i < threadNum; i++) {
+                long start = i * contentLength / threadNum;
+                long end = i == threadNum - 1 ? contentLength : (i + 1) * contentLength / threadNum;
+                segments.add(new Segment(i, start, end, 0));
+            }
+            nextId = threadNum;
+        }
+        if (downloadId != null) {
+            DBService.getInstance().replaceSegments(downloadId, segments);
+        }
+    }
+
+    /**
+     * Part files downloaded by old version have no range in database,their ranges are calculated
+     * by the thread num that they were downloaded with.
+     *
+     * @return false if the part files can't be resumed.
+     */
+    public static boolean restorePartRanges(String downloadId, File tempDir, long contentLength, int threadNum) {
+        if (!DBService.getInstance().querySegments(downloadId).isEmpty()) {
+            return true;
+        }
+        String[] partFiles = tempDir.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(DOWNLOAD_PART);
+            }
+        });
+        if (partFiles == null || partFiles.length == 0) {
+            return true;
+        }
+        if (partFiles.length != threadNum || contentLength <= 0) {
+            return false;
+        }
+        List<Segment> segments = new ArrayList<>();
+        for (int i = 0; i < threadNum; i++) {
+            long start = i * contentLength / threadNum;
+            long end = i == threadNum - 1 ? contentLength : (i + 1) * contentLength / threadNum;
+            segments.add(new Segment(i, start, end, 0));
+        }
+        DBService.getInstance().replaceSegments(downloadId, segments);
+        return true;
+    }
+
+    private boolean isPartMode() {
+        return downloadId != null;
+    }
+
+    private static boolean isValidRecord(int id, long start, long end, long completedSize, long contentLength) {
+        //Only the first segment starts at 0,the split segments never do.
+        return id >= 0 && start >= 0 && start < end && end <= contentLength && completedSize >= 0
+                && (id == 0) == (start == 0);
+    }
+
+    private List<Segment> loadBlockRecords(long contentLength) {
+        List<Segment> records = new ArrayList<>();
+        File[] recordFiles = tempDir == null ? null : tempDir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(DOWNLOAD_BLOCK);
+            }
+        });
+        if (recordFiles == null) {
+            return records;
+        }
+        for (File recordFile : recordFiles) {
+            int id = parseId(recordFile.getName());
+            long[] record = Segment.readRecord(recordFile);
+            if (record == null || !isValidRecord(id, record[0], record[1], record[2], contentLength)) {
+                FileUtil.deleteFile(recordFile);
+                continue;
+            }
+            records.add(new Segment(id, record[0], record[1], Math.min(record[2], record[1] - record[0])));
+        }
+        return records;
+    }
+
+    /**
+     * Load ranges from database and completed size from part files,part files without range are deleted.
+     */
+    private List<Segment> loadPartRecords(long contentLength) {
+        List<Segment> records = new ArrayList<>();
+        File[] partFiles = tempDir == null ? null : tempDir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(DOWNLOAD_PART);
+            }
+        });
+        if (partFiles == null || partFiles.length == 0) {
+            return records;
+        }
+        SparseArray<File> partFileMap = new SparseArray<>();
+        for (File partFile : partFiles) {
+            partFileMap.put(parseId(partFile.getName()), partFile);
+        }
+        for (long[] row : DBService.getInstance().querySegments(downloadId)) {
+            int id = (int) row[0];
+            File partFile = partFileMap.get(id);
+            if (partFile == null) {
+                continue;
+            }
+            long completedSize = partFile.length();
+            if (!isValidRecord(id, row[1], row[2], completedSize, contentLength)
+                    || completedSize > row[2] - row[1]) {
+                continue;
+            }
+            partFileMap.remove(id);
+            records.add(new Segment(id, row[1], row[2], completedSize));
+        }
+        for (int i = 0; i < partFileMap.size(); i++) {
+            FileUtil.deleteFile(partFileMap.valueAt(i));
+        }
+        return records;
+    }
+
+    /**
+     * The overlapped ranges of records are clipped and the uncovered ranges are filled with new segments.
+     */
+    private void loadSegments(List<Segment> records, long contentLength) {
+        if (records.isEmpty()) {
+            return;
+        }
+        for (Segment record : records) {
+            nextId = Math.max(nextId, record.getId() + 1);
+        }
+        Collections.sort(records, new Comparator<Segment>() {
+            @Override
+            public int compare(Segment o1, Segment o2) {
+                return o1.getStart() < o2.getStart() ? -1 : (o1.getStart() == o2.getStart() ? 0 : 1);
+            }
+        });
+        long position = 0;
+        Segment previous = null;
+        for (Segment segment : records) {
+            if (previous != null && segment.getStart() < previous.getEnd()) {
+                //The record of previous segment is not updated after it was split.
+                if (previous.getPosition() <= segment.getStart()) {
+                    previous.setEnd(segment.getStart());
+                } else {
+                    FileUtil.deleteFile(getTempFile(segment));
+                    continue;
+                }
+            } else if (segment.getStart() > position) {
+                segments.add(new Segment(position == 0 ? 0 : nextId++, position, segment.getStart(), 0));
+            }
+            segments.add(segment);
+            previous = segment;
+            position = segment.getEnd();
+        }
+        if (position < contentLength) {
+            segments.add(new Segment(position == 0 ? 0 : nextId++, position, contentLength, 0));
+        }
+    }
+
+    private File getTempFile(Segment segment) {
+        return new File(tempDir, (isPartMode() ? DOWNLOAD_PART : DOWNLOAD_BLOCK) + segment.getId());
+    }
+
+    /**
+     * Get the part file that the segment is downloaded into.
+     */
+    public File getPartFile(Segment segment) {
+        return new File(tempDir, DOWNLOAD_PART + segment.getId());
+    }
+
+    private static int parseId(String name) {
+        try {
+            return Integer.parseInt(name.substring(name.lastIndexOf("-") + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    File getTempDir() {
+        return tempDir;
+    }
+
+    /**
+     * Take the unassigned segment that starts downloading at position.
+     *
+     * @return the segment, or null if no segment is waiting at position.
+     */
+    public synchronized Segment pollAt(long position) {
+        for (Segment segment : segments) {
+            if (!segment.isAssigned() && segment.getRemaining() > 0 && segment.getPosition() == position) {
+                segment.setAssigned(true);
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Take a segment to download, if all segments are assigned, the largest one will be split.
+     *
+     * @return the segment, or null if there is nothing left to download.
+     */
+    public synchronized Segment poll() {
+        Segment largest = null;
+        for (Segment segment : segments) {
+            if (segment.isAssigned()) {
+                if (largest == null || segment.getRemaining() > largest.getRemaining()) {
+                    largest = segment;
+                }
+            } else if (segment.getRemaining() > 0) {
+                segment.setAssigned(true);
+                return segment;
+            }
+        }
+        if (largest != null) {
+            Segment segment = largest.split(nextId, minSegmentSize);
+            if (segment != null) {
+                nextId++;
+                if (isPartMode()) {
+                    //Save the range before downloading,otherwise the part files can't be merged.
+                    DBService.getInstance().splitSegment(downloadId, largest, segment);
+                }
+                segment.setAssigned(true);
+                segments.add(segment);
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Give back the segment that is not downloaded completely.
+     */
+    public synchronized void release(Segment segment) {
+        segment.setAssigned(false);
+    }
+
+    public synchronized long getCompletedSize() {
+        long completedSize = 0;
+        for (Segment segment : segments) {
+            completedSize += segment.getCompletedSize();
+        }
+        return completedSize;
+    }
+}
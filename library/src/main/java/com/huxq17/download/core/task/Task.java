@@ -1,32 +1,70 @@
 package com.huxq17.download.core.task;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 public abstract class Task implements Runnable {
     protected Thread currentThread;
+    private final AtomicBoolean isStarted = new AtomicBoolean();
     private volatile boolean isFinished = false;
 
 
     public void waitUntilFinished() {
-        while (!isFinished) {
-            try {
-                synchronized (this) {
+        boolean interrupted = false;
+        synchronized (this) {
+            while (!isFinished) {
+                try {
                     wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
                 }
-            } catch (InterruptedException ignore) {
             }
         }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
     }
 
+    /**
+     * Run the task on current thread if no thread has started it,otherwise wait until it is finished,
+     * so the waiting thread does the work instead of parking while the task is queued in a busy thread pool.
+     *
+     * @throws InterruptedException if current thread is interrupted while waiting.
+     */
+    public void join() throws InterruptedException {
+        run();
+        synchronized (this) {
+            while (!isFinished) {
+                wait();
+            }
+        }
+    }
+
+    /**
+     * The task is executed only once,the thread that runs it later does nothing.
+     */
     @Override
     public final void run() {
+        if (!isStarted.compareAndSet(false, true)) {
+            return;
+        }
         currentThread = Thread.currentThread();
-        if (!isCanceled()) {
-            execute();
+        try {
+            if (!isCanceled()) {
+                execute();
+            }
+        } finally {
+            currentThread = null;
+            finish();
         }
-        currentThread = null;
+    }
 
-        isFinished = true;
+    /**
+     * Notify threads that are waiting for the task.
+     */
+    protected void finish() {
         synchronized (this) {
-            notify();
+            isFinished = true;
+            notifyAll();
         }
     }
 
@@ -34,6 +72,10 @@ public abstract class Task implements Runnable {
         return currentThread != null && currentThread.isAlive();
     }
 
+    public boolean isFinished() {
+        return isFinished;
+    }
+
     protected abstract void execute();
 
     protected boolean isCanceled() {
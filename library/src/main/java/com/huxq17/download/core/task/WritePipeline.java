@@ -0,0 +1,269 @@
+package com.huxq17.download.core.task;
+
+import com.huxq17.download.PumpFactory;
+import com.huxq17.download.core.service.IDownloadConfigService;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decouple reading from network and writing to disk.Download threads read into pooled buffers and queue
+ * them,the writer thread of every storage volume writes them in background and writes contiguous buffers
+ * of the same file by one call,so a disk stall doesn't stop reading until the buffer memory is used up.
+ * Download threads never wait for a buffer,they write by themselves while no buffer is free.
+ */
+public class WritePipeline {
+    static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * Buffers that are written by one call at most.
+     */
+    private static final int MAX_GATHER_COUNT = 16;
+    private static final WritePipeline instance = new WritePipeline();
+    private final Map<String, VolumeWriter> volumeWriters = new HashMap<>();
+    private final ArrayDeque<byte[]> freeBuffers = new ArrayDeque<>();
+    private int bufferCount;
+
+    private WritePipeline() {
+    }
+
+    public static WritePipeline getInstance() {
+        return instance;
+    }
+
+    /**
+     * Guess the storage volume from path,StorageManager can't tell it before Android O.
+     *
+     * @return mount point like /storage/emulated,/storage/1234-5678 or /data.
+     */
+    static String getVolume(String path) {
+        String[] names = path.split("/");
+        if (names.length < 2) {
+            return "/";
+        }
+        int depth = "storage".equals(names[1]) || "mnt".equals(names[1]) ? 3 : 2;
+        StringBuilder volume = new StringBuilder();
+        for (int i = 1; i < depth && i < names.length; i++) {
+            volume.append('/').append(names[i]);
+        }
+        return volume.toString();
+    }
+
+    /**
+     * Take a free buffer without waiting.
+     *
+     * @return the buffer,or null if buffer memory reaches the limit.
+     */
+    synchronized byte[] acquireBuffer() {
+        if (!freeBuffers.isEmpty()) {
+            return freeBuffers.pop();
+        }
+        long maxMemory = PumpFactory.getService(IDownloadConfigService.class).getMaxWriteBufferMemory();
+        if (bufferCount == 0 || (long) (bufferCount + 1) * BUFFER_SIZE <= maxMemory) {
+            bufferCount++;
+            return new byte[BUFFER_SIZE];
+        }
+        return null;
+    }
+
+    synchronized void releaseBuffer(byte[] buffer) {
+        freeBuffers.push(buffer);
+    }
+
+    /**
+     * Queue the buffer to write,it is released after written.
+     */
+    void write(String volume, FileChannel channel, long position, byte[] buffer, int length,
+               PendingWrites pendingWrites) {
+        VolumeWriter volumeWriter;
+        synchronized (volumeWriters) {
+            volumeWriter = volumeWriters.get(volume);
+            if (volumeWriter == null) {
+                volumeWriter = new VolumeWriter(volume);
+                volumeWriters.put(volume, volumeWriter);
+            }
+        }
+        pendingWrites.add();
+        volumeWriter.add(new WriteRequest(channel, position, buffer, length, pendingWrites));
+    }
+
+    /**
+     * Writes that a download thread has queued,it waits for them before checkpoint and close.
+     */
+    static class PendingWrites {
+        private int count;
+        private IOException error;
+
+        private synchronized void add() {
+            count++;
+        }
+
+        private synchronized void done(IOException e) {
+            count--;
+            if (error == null) {
+                error = e;
+            }
+            notifyAll();
+        }
+
+        /**
+         * Wait until all queued buffers are written,it isn't interrupted so the channel won't be closed
+         * while it is written.
+         *
+         * @throws IOException if any buffer failed to be written.
+         */
+        synchronized void await() throws IOException {
+            boolean interrupted = false;
+            while (count > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+
+    private static class WriteRequest {
+        private final FileChannel channel;
+        private final long position;
+        private final byte[] buffer;
+        private final int length;
+        private final PendingWrites pendingWrites;
+
+        WriteRequest(FileChannel channel, long position, byte[] buffer, int length, PendingWrites pendingWrites) {
+            this.channel = channel;
+            this.position = position;
+            this.buffer = buffer;
+            this.length = length;
+            this.pendingWrites = pendingWrites;
+        }
+    }
+
+    /**
+     * Write queued buffers of a volume on a single thread,the thread exits when it is idle.
+     */
+    private class VolumeWriter implements Runnable {
+        private final ArrayDeque<WriteRequest> requests = new ArrayDeque<>();
+        private final ThreadPoolExecutor executor;
+        private boolean isWriting;
+
+        VolumeWriter(final String volume) {
+            executor = new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r);
+                    t.setName("WritePipeline-" + volume);
+                    return t;
+                }
+            });
+        }
+
+        void add(WriteRequest request) {
+            synchronized (this) {
+                requests.add(request);
+                if (isWriting) {
+                    return;
+                }
+                isWriting = true;
+            }
+            executor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            List<WriteRequest> batch = new ArrayList<>();
+            while (true) {
+                synchronized (this) {
+                    if (requests.isEmpty()) {
+                        isWriting = false;
+                        return;
+                    }
+                    batch.addAll(requests);
+                    requests.clear();
+                }
+                writeBatch(batch);
+                batch.clear();
+            }
+        }
+
+        /**
+         * Ranges of segments never overlap,so buffers of a file are written in the order of position.
+         */
+        private void writeBatch(List<WriteRequest> batch) {
+            Map<FileChannel, List<WriteRequest>> channelRequests = new LinkedHashMap<>();
+            for (WriteRequest request : batch) {
+                List<WriteRequest> requests = channelRequests.get(request.channel);
+                if (requests == null) {
+                    requests = new ArrayList<>();
+                    channelRequests.put(request.channel, requests);
+                }
+                requests.add(request);
+            }
+            for (List<WriteRequest> requests : channelRequests.values()) {
+                Collections.sort(requests, new Comparator<WriteRequest>() {
+                    @Override
+                    public int compare(WriteRequest o1, WriteRequest o2) {
+                        return o1.position < o2.position ? -1 : (o1.position == o2.position ? 0 : 1);
+                    }
+                });
+                int start = 0;
+                for (int i = 1; i <= requests.size(); i++) {
+                    if (i == requests.size() || i - start >= MAX_GATHER_COUNT
+                            || requests.get(i - 1).position + requests.get(i - 1).length != requests.get(i).position) {
+                        write(requests.subList(start, i));
+                        start = i;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Write contiguous buffers of a file by a gather write,only this thread moves position of the channel.
+         */
+        private void write(List<WriteRequest> requests) {
+            FileChannel channel = requests.get(0).channel;
+            ByteBuffer[] byteBuffers = new ByteBuffer[requests.size()];
+            long remaining = 0;
+            for (int i = 0; i < byteBuffers.length; i++) {
+                WriteRequest request = requests.get(i);
+                byteBuffers[i] = ByteBuffer.wrap(request.buffer, 0, request.length);
+                remaining += request.length;
+            }
+            IOException error = null;
+            try {
+                channel.position(requests.get(0).position);
+                while (remaining > 0) {
+                    remaining -= channel.write(byteBuffers);
+                }
+            } catch (IOException e) {
+                error = e;
+            } catch (RuntimeException e) {
+                error = new IOException(e.toString());
+            }
+            for (WriteRequest request : requests) {
+                releaseBuffer(request.buffer);
+                request.pendingWrites.done(error);
+            }
+        }
+    }
+}
@@ -10,7 +10,9 @@ import com.huxq17.download.DownloadProvider;
 
 public class DBOpenHelper extends SQLiteOpenHelper {
     public DBOpenHelper(Context context) {
-        super(context, "pump.db", null, 7);
+        super(context, "pump.db", null, 9);
+        //Readers don't block the writer of download info.
+        setWriteAheadLoggingEnabled(true);
     }
 
     @Override
@@ -43,6 +45,33 @@ public class DBOpenHelper extends SQLiteOpenHelper {
                 + DownloadProvider.CacheTable.ETAG + " CHAR,"
                 + DownloadProvider.CacheTable.LAST_MODIFIED + " CHAR"
                 + ");");
+        createSegmentTable(db);
+        createInfoIndexes(db);
+    }
+
+    /**
+     * Indexes of download list queries,they are sorted by create time and filtered by tag or finished.
+     */
+    private void createInfoIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + DownloadProvider.DownloadTable.TABLE_NAME + "_create_time ON "
+                + DownloadProvider.DownloadTable.TABLE_NAME + " ("
+                + DownloadProvider.DownloadTable.CREATE_TIME + "," + DownloadProvider.DownloadTable.ID + ");");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + DownloadProvider.DownloadTable.TABLE_NAME + "_tag ON "
+                + DownloadProvider.DownloadTable.TABLE_NAME + " ("
+                + DownloadProvider.DownloadTable.TAG + "," + DownloadProvider.DownloadTable.CREATE_TIME + ");");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + DownloadProvider.DownloadTable.TABLE_NAME + "_finished ON "
+                + DownloadProvider.DownloadTable.TABLE_NAME + " ("
+                + DownloadProvider.DownloadTable.FINISHED + "," + DownloadProvider.DownloadTable.CREATE_TIME + ");");
+    }
+
+    private void createSegmentTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + DownloadProvider.SegmentTable.TABLE_NAME + " ("
+                + DownloadProvider.SegmentTable.ID + " CHAR,"
+                + DownloadProvider.SegmentTable.SEGMENT_ID + " INTEGER,"
+                + DownloadProvider.SegmentTable.START_POSITION + " INTEGER,"
+                + DownloadProvider.SegmentTable.END_POSITION + " INTEGER,"
+                + "primary key(" + DownloadProvider.SegmentTable.ID + "," + DownloadProvider.SegmentTable.SEGMENT_ID + ")"
+                + ");");
     }
 
     private void newVersion3(SQLiteDatabase db, int oldVersion) {
@@ -140,13 +169,32 @@ public class DBOpenHelper extends SQLiteOpenHelper {
         db.execSQL("ALTER TABLE " + DownloadProvider.DownloadTable.TABLE_NAME + " ADD COLUMN " + DownloadProvider.DownloadTable.MIME_TYPE + " CHAR;");
     }
 
+    private void newVersion8(SQLiteDatabase db, int oldVersion) {
+        //add segment table to resume download with any thread num.
+        if (oldVersion < 6) {
+            newVersion6(db, oldVersion);
+        }
+        createSegmentTable(db);
+    }
+
+    private void newVersion9(SQLiteDatabase db, int oldVersion) {
+        //add indexes of download list queries.
+        if (oldVersion < 8) {
+            newVersion8(db, oldVersion);
+        }
+        createInfoIndexes(db);
+    }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         if (oldVersion == 0) {
             onCreate(db);
         } else {
-            if (newVersion == 6) {
+            if (newVersion == 9) {
+                newVersion9(db, oldVersion);
+            } else if (newVersion == 8) {
+                newVersion8(db, oldVersion);
+            } else if (newVersion == 6) {
                 newVersion6(db, oldVersion);
             } else if (newVersion == 5) {
                 newVersion5(db, oldVersion);
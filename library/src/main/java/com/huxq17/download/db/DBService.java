@@ -1,24 +1,70 @@
 package com.huxq17.download.db;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.text.TextUtils;
 
 import com.huxq17.download.DownloadProvider;
 import com.huxq17.download.core.DownloadDetailsInfo;
+import com.huxq17.download.core.DownloadInfo;
 import com.huxq17.download.core.DownloadInfoManager;
+import com.huxq17.download.core.DownloadQuery;
+import com.huxq17.download.core.task.Segment;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class DBService {
+    /**
+     * Download info updated while downloading is written in a batch after this delay.
+     */
+    private static final long WRITE_DELAY = 500;
+    /**
+     * Columns that download info is created from.
+     */
+    private static final String[] INFO_COLUMNS = new String[]{
+            DownloadProvider.DownloadTable.URL,
+            DownloadProvider.DownloadTable.PATH,
+            DownloadProvider.DownloadTable.THREAD_NUM,
+            DownloadProvider.DownloadTable.FILE_LENGTH,
+            DownloadProvider.DownloadTable.FINISHED,
+            DownloadProvider.DownloadTable.CREATE_TIME,
+            DownloadProvider.DownloadTable.TAG,
+            DownloadProvider.DownloadTable.ID,
+            DownloadProvider.DownloadTable.SCHEMA_URI};
     private DBOpenHelper helper;
     private static DBService instance;
     private DownloadInfoManager downloadInfoManager;
-    private AtomicInteger mOpenCounter = new AtomicInteger();
+    private SQLiteDatabase database;
+    /**
+     * Guard the compiled statements and the write transactions.
+     */
+    private final Object writeLock = new Object();
+    private SQLiteStatement replaceInfoStatement;
+    private SQLiteStatement replaceCacheStatement;
+    private SQLiteStatement replaceSegmentStatement;
+    private SQLiteStatement deleteSegmentsStatement;
+    /**
+     * Rows of download info waiting to be written,keyed by download id.
+     */
+    private final Map<String, InfoRow> pendingInfos = new LinkedHashMap<>();
+    private final List<InfoRow> writingInfos = new ArrayList<>();
+    private boolean isWriteScheduled;
+    private final ScheduledExecutorService writeExecutor = Executors.newSingleThreadScheduledExecutor();
+    private final Runnable writeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
 
     public static void init(Context context) {
         instance = new DBService(context);
@@ -37,13 +83,13 @@ public class DBService {
         if (TextUtils.isEmpty(cacheBean.lastModified) && TextUtils.isEmpty(cacheBean.eTag)) {
             return;
         }
-        SQLiteDatabase db = getDatabase();
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(DownloadProvider.CacheTable.URL, cacheBean.url);
-        contentValues.put(DownloadProvider.CacheTable.LAST_MODIFIED, cacheBean.lastModified);
-        contentValues.put(DownloadProvider.CacheTable.ETAG, cacheBean.eTag);
-        db.replace(DownloadProvider.CacheTable.TABLE_NAME, null, contentValues);
-        closeDatabase();
+        synchronized (writeLock) {
+            SQLiteStatement statement = getReplaceCacheStatement();
+            bindString(statement, 1, cacheBean.url);
+            bindString(statement, 2, cacheBean.lastModified);
+            bindString(statement, 3, cacheBean.eTag);
+            statement.execute();
+        }
     }
 
     public DownloadProvider.CacheBean queryCache(String url) {
@@ -56,27 +102,63 @@ public class DBService {
                     cursor.getString(1));
         }
         cursor.close();
-        closeDatabase();
         return cacheBean;
     }
 
+    /**
+     * Save download info,it is written later in a batch while downloading,and written at once
+     * when download is not running.
+     */
     public void updateInfo(DownloadDetailsInfo downloadInfo) {
         if (downloadInfo.isDeleted()) {
             return;
         }
-        SQLiteDatabase db = getDatabase();
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(DownloadProvider.DownloadTable.URL, downloadInfo.getUrl());
-        contentValues.put(DownloadProvider.DownloadTable.PATH, downloadInfo.getFilePath());
-        contentValues.put(DownloadProvider.DownloadTable.THREAD_NUM, downloadInfo.getThreadNum());
-        contentValues.put(DownloadProvider.DownloadTable.FILE_LENGTH, downloadInfo.getContentLength());
-        contentValues.put(DownloadProvider.DownloadTable.FINISHED, downloadInfo.getFinished());
-        contentValues.put(DownloadProvider.DownloadTable.TAG, downloadInfo.getTag());
-        contentValues.put(DownloadProvider.DownloadTable.ID, downloadInfo.getId());
-        contentValues.put(DownloadProvider.DownloadTable.CREATE_TIME, downloadInfo.getCreateTime());
-        contentValues.put(DownloadProvider.DownloadTable.SCHEMA_URI, downloadInfo.getSchemaUri() == null ? null : downloadInfo.getSchemaUri().toString());
-        db.replace(DownloadProvider.DownloadTable.TABLE_NAME, null, contentValues);
-        closeDatabase();
+        DownloadInfo.Status status = downloadInfo.getStatus();
+        synchronized (pendingInfos) {
+            InfoRow row = pendingInfos.get(downloadInfo.getId());
+            if (row == null) {
+                row = new InfoRow();
+                pendingInfos.put(downloadInfo.getId(), row);
+            }
+            row.set(downloadInfo);
+            if (status != null && status.isRunning()) {
+                if (!isWriteScheduled) {
+                    isWriteScheduled = true;
+                    writeExecutor.schedule(writeRunnable, WRITE_DELAY, TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Write the pending download info to database in one transaction.
+     */
+    public void flush() {
+        synchronized (writeLock) {
+            synchronized (pendingInfos) {
+                writingInfos.addAll(pendingInfos.values());
+                pendingInfos.clear();
+                isWriteScheduled = false;
+            }
+            if (writingInfos.isEmpty()) {
+                return;
+            }
+            SQLiteDatabase db = getDatabase();
+            db.beginTransactionNonExclusive();
+            try {
+                SQLiteStatement statement = getReplaceInfoStatement();
+                for (int i = 0; i < writingInfos.size(); i++) {
+                    writingInfos.get(i).bind(statement);
+                    statement.execute();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                writingInfos.clear();
+            }
+        }
     }
 
     public List<DownloadDetailsInfo> getDownloadList() {
@@ -84,58 +166,322 @@ public class DBService {
     }
 
     public List<DownloadDetailsInfo> getDownloadListByTag(String tag) {
-        List<DownloadDetailsInfo> tasks = new ArrayList<>();
-        SQLiteDatabase db = getDatabase();
-        Cursor cursor;
-        if (tag == null) {
-            cursor = db.query(DownloadProvider.DownloadTable.TABLE_NAME, null,
-                    null, null, null, null,
-                    DownloadProvider.DownloadTable.CREATE_TIME + " DESC", null);
-        } else {
-            cursor = db.query(DownloadProvider.DownloadTable.TABLE_NAME, null,
-                    DownloadProvider.DownloadTable.TAG + " = ?", new String[]{tag},
-                    null, null, DownloadProvider.DownloadTable.CREATE_TIME + " DESC", null);
+        return queryDownloadList(DownloadQuery.newBuilder().setTag(tag).build());
+    }
+
+    /**
+     * Query download list that filtered,sorted and paged by database,download info that is loaded
+     * already is reused.Only the columns of download info are read,and progress of new download info
+     * is calculated when it is delivered.
+     */
+    public List<DownloadDetailsInfo> queryDownloadList(DownloadQuery query) {
+        flush();
+        StringBuilder selection = new StringBuilder();
+        List<String> selectionArgs = new ArrayList<>();
+        if (query.getTag() != null) {
+            appendSelection(selection, DownloadProvider.DownloadTable.TAG + "=?");
+            selectionArgs.add(query.getTag());
+        }
+        if (query.getFinished() != null) {
+            appendSelection(selection, DownloadProvider.DownloadTable.FINISHED + "=?");
+            selectionArgs.add(query.getFinished() ? "1" : "0");
+        }
+        if (query.getStatuses() != null) {
+            appendStatusSelection(selection, selectionArgs, query.getStatuses());
+        }
+        String order = query.isAscending() ? " ASC" : " DESC";
+        if (query.getAfterId() != null) {
+            String operator = query.isAscending() ? ">" : "<";
+            String afterCreateTime = String.valueOf(query.getAfterCreateTime());
+            appendSelection(selection, "(" + DownloadProvider.DownloadTable.CREATE_TIME + operator + "? OR ("
+                    + DownloadProvider.DownloadTable.CREATE_TIME + "=? AND "
+                    + DownloadProvider.DownloadTable.ID + operator + "?))");
+            selectionArgs.add(afterCreateTime);
+            selectionArgs.add(afterCreateTime);
+            selectionArgs.add(query.getAfterId());
+        }
+        String limit = null;
+        if (query.getLimit() > 0 || query.getOffset() > 0) {
+            limit = query.getOffset() + "," + (query.getLimit() > 0 ? query.getLimit() : -1);
         }
+        List<DownloadDetailsInfo> tasks = new ArrayList<>();
+        Cursor cursor = getDatabase().query(DownloadProvider.DownloadTable.TABLE_NAME, INFO_COLUMNS,
+                selection.length() == 0 ? null : selection.toString(),
+                selectionArgs.toArray(new String[selectionArgs.size()]), null, null,
+                DownloadProvider.DownloadTable.CREATE_TIME + order + "," + DownloadProvider.DownloadTable.ID + order,
+                limit);
         while (cursor.moveToNext()) {
-            DownloadDetailsInfo info = downloadInfoManager.createInfoByCursor(cursor);
-            tasks.add(info);
+            tasks.add(downloadInfoManager.createInfoByCursor(cursor));
         }
         cursor.close();
-        closeDatabase();
         return tasks;
     }
 
+    private static void appendSelection(StringBuilder selection, String condition) {
+        if (selection.length() > 0) {
+            selection.append(" AND ");
+        }
+        selection.append(condition);
+    }
+
+    /**
+     * Status is not saved in database,downloads that are not loaded are FINISHED or STOPPED
+     * by finished column,other statuses only exist in loaded downloads.
+     */
+    private void appendStatusSelection(StringBuilder selection, List<String> selectionArgs,
+                                       Set<DownloadInfo.Status> statuses) {
+        List<String> matchedIds = new ArrayList<>();
+        List<String> changedIds = new ArrayList<>();
+        for (DownloadDetailsInfo downloadInfo : downloadInfoManager.getAll()) {
+            DownloadInfo.Status status = downloadInfo.getStatus();
+            if (status == null || status == DownloadInfo.Status.STOPPED || status == DownloadInfo.Status.FINISHED) {
+                continue;
+            }
+            changedIds.add(downloadInfo.getId());
+            if (statuses.contains(status)) {
+                matchedIds.add(downloadInfo.getId());
+            }
+        }
+        boolean containsStopped = statuses.contains(DownloadInfo.Status.STOPPED);
+        boolean containsFinished = statuses.contains(DownloadInfo.Status.FINISHED);
+        StringBuilder statusSelection = new StringBuilder("(");
+        if (!matchedIds.isEmpty()) {
+            statusSelection.append(DownloadProvider.DownloadTable.ID).append(" IN (").append(placeholders(matchedIds.size())).append(")");
+            selectionArgs.addAll(matchedIds);
+        }
+        if (containsStopped || containsFinished) {
+            if (!matchedIds.isEmpty()) {
+                statusSelection.append(" OR ");
+            }
+            statusSelection.append("(");
+            if (containsStopped != containsFinished) {
+                statusSelection.append(DownloadProvider.DownloadTable.FINISHED).append(containsFinished ? "=1" : "=0");
+            } else {
+                statusSelection.append("1");
+            }
+            if (!changedIds.isEmpty()) {
+                statusSelection.append(" AND ").append(DownloadProvider.DownloadTable.ID)
+                        .append(" NOT IN (").append(placeholders(changedIds.size())).append(")");
+                selectionArgs.addAll(changedIds);
+            }
+            statusSelection.append(")");
+        } else if (matchedIds.isEmpty()) {
+            statusSelection.append("0");
+        }
+        statusSelection.append(")");
+        appendSelection(selection, statusSelection.toString());
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            placeholders.append(i == 0 ? "?" : ",?");
+        }
+        return placeholders.toString();
+    }
+
     public DownloadDetailsInfo getDownloadInfo(String id) {
         if (id == null || id.length() == 0) {
             throw new IllegalArgumentException("id is empty.");
         }
+        flush();
         DownloadDetailsInfo info = null;
         SQLiteDatabase db = getDatabase();
-        Cursor cursor = db.query(DownloadProvider.DownloadTable.TABLE_NAME, null,
+        Cursor cursor = db.query(DownloadProvider.DownloadTable.TABLE_NAME, INFO_COLUMNS,
                 DownloadProvider.DownloadTable.ID + "=?", new String[]{id}, null, null, null, null);
         if (cursor.moveToNext()) {
             info = downloadInfoManager.createInfoByCursor(cursor);
         }
         cursor.close();
-        closeDatabase();
         return info;
     }
 
     public void deleteInfo(String id) {
+        synchronized (writeLock) {
+            synchronized (pendingInfos) {
+                pendingInfos.remove(id);
+            }
+            SQLiteDatabase db = getDatabase();
+            db.delete(DownloadProvider.DownloadTable.TABLE_NAME, DownloadProvider.DownloadTable.ID + "=?", new String[]{id});
+            db.delete(DownloadProvider.CacheTable.TABLE_NAME, DownloadProvider.CacheTable.URL + "=?", new String[]{id});
+            db.delete(DownloadProvider.SegmentTable.TABLE_NAME, DownloadProvider.SegmentTable.ID + "=?", new String[]{id});
+        }
+    }
+
+    /**
+     * Query segments of download,ordered by start position.
+     *
+     * @return list of [segmentId, start, end].
+     */
+    public List<long[]> querySegments(String id) {
+        List<long[]> segments = new ArrayList<>();
         SQLiteDatabase db = getDatabase();
-        db.delete(DownloadProvider.DownloadTable.TABLE_NAME, DownloadProvider.DownloadTable.ID + "=?", new String[]{id});
-        db.delete(DownloadProvider.CacheTable.TABLE_NAME, DownloadProvider.CacheTable.URL + "=?", new String[]{id});
-        closeDatabase();
+        Cursor cursor = db.query(DownloadProvider.SegmentTable.TABLE_NAME,
+                new String[]{DownloadProvider.SegmentTable.SEGMENT_ID, DownloadProvider.SegmentTable.START_POSITION,
+                        DownloadProvider.SegmentTable.END_POSITION},
+                DownloadProvider.SegmentTable.ID + "=?", new String[]{id}, null, null,
+                DownloadProvider.SegmentTable.START_POSITION + " ASC", null);
+        while (cursor.moveToNext()) {
+            segments.add(new long[]{cursor.getLong(0), cursor.getLong(1), cursor.getLong(2)});
+        }
+        cursor.close();
+        return segments;
+    }
+
+    /**
+     * Replace all segments of download.
+     */
+    public void replaceSegments(String id, List<Segment> segments) {
+        synchronized (writeLock) {
+            SQLiteDatabase db = getDatabase();
+            db.beginTransactionNonExclusive();
+            try {
+                SQLiteStatement deleteStatement = getDeleteSegmentsStatement();
+                deleteStatement.bindString(1, id);
+                deleteStatement.execute();
+                for (Segment segment : segments) {
+                    replaceSegment(id, segment);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
     }
 
+    /**
+     * Save the split segment and the new end of segment that it split from.
+     */
+    public void splitSegment(String id, Segment segment, Segment newSegment) {
+        synchronized (writeLock) {
+            SQLiteDatabase db = getDatabase();
+            db.beginTransactionNonExclusive();
+            try {
+                replaceSegment(id, segment);
+                replaceSegment(id, newSegment);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    public void deleteSegments(String id) {
+        synchronized (writeLock) {
+            SQLiteStatement statement = getDeleteSegmentsStatement();
+            statement.bindString(1, id);
+            statement.execute();
+        }
+    }
+
+    private void replaceSegment(String id, Segment segment) {
+        SQLiteStatement statement = getReplaceSegmentStatement();
+        statement.bindString(1, id);
+        statement.bindLong(2, segment.getId());
+        statement.bindLong(3, segment.getStart());
+        statement.bindLong(4, segment.getEnd());
+        statement.execute();
+    }
+
+    private SQLiteStatement getReplaceInfoStatement() {
+        if (replaceInfoStatement == null) {
+            replaceInfoStatement = getDatabase().compileStatement("REPLACE INTO " + DownloadProvider.DownloadTable.TABLE_NAME + " ("
+                    + DownloadProvider.DownloadTable.URL + ","
+                    + DownloadProvider.DownloadTable.PATH + ","
+                    + DownloadProvider.DownloadTable.THREAD_NUM + ","
+                    + DownloadProvider.DownloadTable.FILE_LENGTH + ","
+                    + DownloadProvider.DownloadTable.FINISHED + ","
+                    + DownloadProvider.DownloadTable.TAG + ","
+                    + DownloadProvider.DownloadTable.ID + ","
+                    + DownloadProvider.DownloadTable.CREATE_TIME + ","
+                    + DownloadProvider.DownloadTable.SCHEMA_URI + ") VALUES (?,?,?,?,?,?,?,?,?)");
+        }
+        return replaceInfoStatement;
+    }
+
+    private SQLiteStatement getReplaceCacheStatement() {
+        if (replaceCacheStatement == null) {
+            replaceCacheStatement = getDatabase().compileStatement("REPLACE INTO " + DownloadProvider.CacheTable.TABLE_NAME + " ("
+                    + DownloadProvider.CacheTable.URL + ","
+                    + DownloadProvider.CacheTable.LAST_MODIFIED + ","
+                    + DownloadProvider.CacheTable.ETAG + ") VALUES (?,?,?)");
+        }
+        return replaceCacheStatement;
+    }
+
+    private SQLiteStatement getReplaceSegmentStatement() {
+        if (replaceSegmentStatement == null) {
+            replaceSegmentStatement = getDatabase().compileStatement("REPLACE INTO " + DownloadProvider.SegmentTable.TABLE_NAME + " ("
+                    + DownloadProvider.SegmentTable.ID + ","
+                    + DownloadProvider.SegmentTable.SEGMENT_ID + ","
+                    + DownloadProvider.SegmentTable.START_POSITION + ","
+                    + DownloadProvider.SegmentTable.END_POSITION + ") VALUES (?,?,?,?)");
+        }
+        return replaceSegmentStatement;
+    }
+
+    private SQLiteStatement getDeleteSegmentsStatement() {
+        if (deleteSegmentsStatement == null) {
+            deleteSegmentsStatement = getDatabase().compileStatement("DELETE FROM " + DownloadProvider.SegmentTable.TABLE_NAME
+                    + " WHERE " + DownloadProvider.SegmentTable.ID + "=?");
+        }
+        return deleteSegmentsStatement;
+    }
+
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    /**
+     * The database is opened once and kept open,it is closed by system when process dies.
+     */
     private synchronized SQLiteDatabase getDatabase() {
-        mOpenCounter.incrementAndGet();
-        return helper.getWritableDatabase();
+        if (database == null) {
+            database = helper.getWritableDatabase();
+        }
+        return database;
     }
 
-    private synchronized void closeDatabase() {
-        if (mOpenCounter.decrementAndGet() == 0) {
-            helper.close();
+    /**
+     * Columns of download info that captured when it is updated.
+     */
+    private static class InfoRow {
+        String url;
+        String path;
+        int threadNum;
+        long contentLength;
+        int finished;
+        String tag;
+        String id;
+        long createTime;
+        String schemaUri;
+
+        void set(DownloadDetailsInfo downloadInfo) {
+            url = downloadInfo.getUrl();
+            path = downloadInfo.getFilePath();
+            threadNum = downloadInfo.getThreadNum();
+            contentLength = downloadInfo.getContentLength();
+            finished = downloadInfo.getFinished();
+            tag = downloadInfo.getTag();
+            id = downloadInfo.getId();
+            createTime = downloadInfo.getCreateTime();
+            schemaUri = downloadInfo.getSchemaUri() == null ? null : downloadInfo.getSchemaUri().toString();
+        }
+
+        void bind(SQLiteStatement statement) {
+            bindString(statement, 1, url);
+            bindString(statement, 2, path);
+            statement.bindLong(3, threadNum);
+            statement.bindLong(4, contentLength);
+            statement.bindLong(5, finished);
+            bindString(statement, 6, tag);
+            bindString(statement, 7, id);
+            statement.bindLong(8, createTime);
+            bindString(statement, 9, schemaUri);
         }
     }
 }
@@ -0,0 +1,158 @@
+package com.huxq17.download.db;
+
+import android.content.Context;
+
+import com.huxq17.download.utils.FileUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.huxq17.download.utils.Util.closeQuietly;
+
+/**
+ * Append-only journal of the completed size of downloads,so progress is restored by reading one
+ * file instead of listing the temp directory of every download.
+ * A record is [id, completedSize, checksum],the last record of an id wins and a negative size
+ * removes the id.The journal is rewritten with only the latest records when it is loaded and
+ * when stale records are too many.
+ */
+public class ProgressJournal {
+    private static final String JOURNAL_NAME = "pump_progress.journal";
+    private static final int MIN_COMPACT_RECORD_COUNT = 256;
+    private static final int CHECKSUM_SEED = 0x5A5A5A5A;
+    private static ProgressJournal instance;
+    private final File journalFile;
+    private final Map<String, Long> completedSizes = new HashMap<>();
+    private DataOutputStream output;
+    private int recordCount;
+    private boolean isLoaded;
+
+    public static void init(Context context) {
+        instance = new ProgressJournal(new File(context.getFilesDir(), JOURNAL_NAME));
+    }
+
+    public static ProgressJournal getInstance() {
+        return instance;
+    }
+
+    ProgressJournal(File journalFile) {
+        this.journalFile = journalFile;
+    }
+
+    /**
+     * @return the recorded completed size of download, or -1 if it is not recorded.
+     */
+    public synchronized long get(String id) {
+        load();
+        Long completedSize = completedSizes.get(id);
+        return completedSize == null ? -1 : completedSize;
+    }
+
+    public synchronized void record(String id, long completedSize) {
+        load();
+        Long lastCompletedSize = completedSizes.put(id, completedSize);
+        if (lastCompletedSize == null || lastCompletedSize != completedSize) {
+            append(id, completedSize);
+        }
+    }
+
+    public synchronized void remove(String id) {
+        load();
+        if (completedSizes.remove(id) != null) {
+            append(id, -1);
+        }
+    }
+
+    private void load() {
+        if (isLoaded) {
+            return;
+        }
+        isLoaded = true;
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+            while (true) {
+                String id = input.readUTF();
+                long completedSize = input.readLong();
+                if (input.readInt() != checksum(id, completedSize)) {
+                    break;
+                }
+                if (completedSize < 0) {
+                    completedSizes.remove(id);
+                } else {
+                    completedSizes.put(id, completedSize);
+                }
+            }
+        } catch (FileNotFoundException ignore) {
+            return;
+        } catch (IOException ignore) {
+            //End of journal,or the record that was being written when process died.
+        } finally {
+            closeQuietly(input);
+        }
+        //Records can't be appended after a broken record,so always rewrite it.
+        compact();
+    }
+
+    private void append(String id, long completedSize) {
+        try {
+            if (output == null) {
+                output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, true)));
+            }
+            write(output, id, completedSize);
+            output.flush();
+            recordCount++;
+        } catch (IOException e) {
+            e.printStackTrace();
+            closeQuietly(output);
+            output = null;
+            return;
+        }
+        if (recordCount > MIN_COMPACT_RECORD_COUNT && recordCount > completedSizes.size() * 4) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        closeQuietly(output);
+        output = null;
+        File tempFile = new File(journalFile.getPath() + ".tmp");
+        DataOutputStream tempOutput = null;
+        try {
+            tempOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            for (Map.Entry<String, Long> entry : completedSizes.entrySet()) {
+                write(tempOutput, entry.getKey(), entry.getValue());
+            }
+            tempOutput.close();
+            tempOutput = null;
+            if (!tempFile.renameTo(journalFile)) {
+                FileUtil.deleteFile(journalFile);
+                tempFile.renameTo(journalFile);
+            }
+            recordCount = completedSizes.size();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            closeQuietly(tempOutput);
+        }
+    }
+
+    private static void write(DataOutputStream output, String id, long completedSize) throws IOException {
+        output.writeUTF(id);
+        output.writeLong(completedSize);
+        output.writeInt(checksum(id, completedSize));
+    }
+
+    private static int checksum(String id, long completedSize) {
+        return (id.hashCode() * 31 + (int) (completedSize ^ (completedSize >>> 32))) ^ CHECKSUM_SEED;
+    }
+}
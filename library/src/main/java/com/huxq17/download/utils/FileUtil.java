@@ -168,19 +168,40 @@ public class FileUtil {
 //        return false;
 //    }
 
+    /**
+     * Sort part files by the id at the end of their names,then merge them into dest.
+     * Part files must be named by ids from 0 to their count,use {@link #mergeSortedFiles(File[], File)}
+     * if they are sorted already.
+     */
     public static boolean mergeFiles(File[] sources, File dest) {
+        File[] sortedFiles = sortPartFiles(sources);
+        return sortedFiles != null && mergeSortedFiles(sortedFiles, dest);
+    }
+
+    /**
+     * @return part files sorted by the id at the end of their names,or null if an id is out of range.
+     */
+    public static File[] sortPartFiles(File[] sources) {
         File[] sortedFiles = new File[sources.length];
-        for (int i = 0; i < sources.length; i++) {
-            File partFile = sources[i];
+        for (File partFile : sources) {
             String partFileName = partFile.getName();
             int idIndex = partFileName.lastIndexOf("-") + 1;
             int id = Integer.parseInt(partFileName.substring(idIndex));
             if (id < sortedFiles.length) {
                 sortedFiles[id] = partFile;
             } else {
-                return false;
+                return null;
             }
         }
+        return sortedFiles;
+    }
+
+    /**
+     * Append sources to the first one and rename it to dest,sources are merged in the given order.
+     *
+     * @param sortedFiles part files sorted by their positions in dest.
+     */
+    public static boolean mergeSortedFiles(File[] sortedFiles, File dest) {
         BufferedSink bufferedSink = null;
         BufferedSource bufferedSource = null;
         try {
@@ -30,6 +30,7 @@ import okhttp3.Response;
 
 public class Util {
     public static final String DOWNLOAD_PART = "DOWNLOAD_PART-";
+    public static final String DOWNLOAD_BLOCK = "DOWNLOAD_BLOCK-";
     public static final String PUMP_CACHE_DIRECTORY_SUB = "pump_cache" + File.separatorChar;
     public static final String BIN = "bin";
     public static final String TRANSFER_ENCODING_CHUNKED = "chunked";
@@ -16,6 +16,8 @@ import org.robolectric.RobolectricTestRunner;
 import java.util.Iterator;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
@@ -70,6 +72,44 @@ public class MessageCenterTest {
         verify(handler, times(0)).sendMessage(any(Message.class));
     }
 
+    @Test
+    public void notifyProgressChanged_coalesce() {
+        Mockito.when(messageCenter.isShutdown()).thenReturn(false);
+        Mockito.doReturn(100L).when(messageCenter).getCoalesceInterval();
+        final Handler handler = mock(Handler.class);
+        messageCenter.setHandler(handler);
+        final DownloadDetailsInfo downloadDetailsInfo = new DownloadDetailsInfo(null, null);
+        downloadDetailsInfo.setStatus(DownloadInfo.Status.RUNNING);
+        messageCenter.notifyProgressChanged(downloadDetailsInfo);
+        messageCenter.notifyProgressChanged(downloadDetailsInfo);
+        verify(handler, times(1)).sendEmptyMessageDelayed(anyInt(), eq(100L));
+        verify(handler, never()).sendMessage(any(Message.class));
+
+        DownloadListener listener = spy(DownloadListener.class);
+        messageCenter.register(listener);
+        messageCenter.flushPendingSnapshots();
+        verify(listener, times(1)).onProgress(anyInt());
+    }
+
+    @Test
+    public void notifyProgressChanged_coalesceNeverDropStatusChange() {
+        Mockito.when(messageCenter.isShutdown()).thenReturn(false);
+        Mockito.doReturn(100L).when(messageCenter).getCoalesceInterval();
+        final Handler handler = mock(Handler.class);
+        messageCenter.setHandler(handler);
+        final DownloadDetailsInfo downloadDetailsInfo = new DownloadDetailsInfo(null, null);
+        downloadDetailsInfo.setStatus(DownloadInfo.Status.RUNNING);
+        messageCenter.notifyProgressChanged(downloadDetailsInfo);
+        downloadDetailsInfo.setStatus(DownloadInfo.Status.FINISHED);
+        messageCenter.notifyProgressChanged(downloadDetailsInfo);
+        verify(handler).sendMessage(any(Message.class));
+
+        DownloadListener listener = spy(DownloadListener.class);
+        messageCenter.register(listener);
+        messageCenter.flushPendingSnapshots();
+        verify(listener, never()).onProgress(anyInt());
+    }
+
     @Test
     public void handleDownloadInfoSnapshot() {
         DownloadListener downloadListener = new DownloadListener();
@@ -84,6 +124,23 @@ public class MessageCenterTest {
         messageCenter.handleDownloadInfoSnapshot(iterator, snapshot);
     }
 
+    @Test
+    public void handleDownloadInfoSnapshot_onlyBoundListeners() {
+        DownloadListener boundListener = spy(DownloadListener.class);
+        boundListener.setId("url1");
+        DownloadListener otherListener = spy(DownloadListener.class);
+        otherListener.setId("url2");
+        DownloadListener globalListener = spy(DownloadListener.class);
+        messageCenter.register(boundListener);
+        messageCenter.register(otherListener);
+        messageCenter.register(globalListener);
+        DownloadDetailsInfo downloadDetailsInfo = new DownloadDetailsInfo("url1", null);
+        messageCenter.handleDownloadInfoSnapshot(downloadDetailsInfo.snapshot());
+        verify(boundListener).onProgress(anyInt());
+        verify(globalListener).onProgress(anyInt());
+        verify(otherListener, never()).onProgress(anyInt());
+    }
+
     @Test
     public void register() {
         DownloadListener listener1 = spy(DownloadListener.class);
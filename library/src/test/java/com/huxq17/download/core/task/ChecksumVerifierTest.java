@@ -0,0 +1,103 @@
+package com.huxq17.download.core.task;
+
+import com.huxq17.download.DownloadProvider;
+import com.huxq17.download.core.DownloadRequest;
+import com.huxq17.download.core.PumpFile;
+import com.huxq17.download.utils.MD5Util;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class ChecksumVerifierTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private byte[] data;
+    private PumpFile downloadFile;
+
+    @Before
+    public void setUp() throws IOException {
+        DownloadProvider.context = RuntimeEnvironment.application;
+        data = new byte[300 * 1024 + 7];
+        new Random(1).nextBytes(data);
+        File file = temporaryFolder.newFile("download");
+        FileOutputStream outputStream = new FileOutputStream(file);
+        outputStream.write(data);
+        outputStream.close();
+        downloadFile = new PumpFile(file.getPath(), null);
+    }
+
+    @Test
+    public void combineCrc32() {
+        int middle = 12345;
+        CRC32 first = new CRC32();
+        first.update(data, 0, middle);
+        CRC32 second = new CRC32();
+        second.update(data, middle, data.length - middle);
+        CRC32 whole = new CRC32();
+        whole.update(data);
+        assertEquals(whole.getValue(), ChecksumVerifier.combineCrc32(first.getValue(), second.getValue(), data.length - middle));
+    }
+
+    @Test
+    public void verifyCrc32WithUnhashedRanges() throws IOException {
+        CRC32 crc32 = new CRC32();
+        crc32.update(data);
+        ChecksumVerifier verifier = new ChecksumVerifier(DownloadRequest.CHECKSUM_CRC32,
+                String.format("%08x", crc32.getValue()));
+        //The resumed segment isn't hashed,and the first 1000 bytes were downloaded before.
+        assertNull(verifier.createHasher(1000, 10));
+        ChecksumVerifier.Hasher hasher = verifier.createHasher(1000, 0);
+        hasher.update(data, 1000, 50000);
+        hasher = verifier.createHasher(100000, 0);
+        hasher.update(data, 100000, data.length - 100000);
+
+        assertTrue(verifier.verify(downloadFile, data.length));
+    }
+
+    @Test
+    public void verifyCrc32WithDiscardedHasher() throws IOException {
+        CRC32 crc32 = new CRC32();
+        crc32.update(data);
+        ChecksumVerifier verifier = new ChecksumVerifier(DownloadRequest.CHECKSUM_CRC32,
+                String.format("%08x", crc32.getValue()));
+        //Bytes hashed before the segment is rewound aren't the bytes on disk.
+        ChecksumVerifier.Hasher hasher = verifier.createHasher(0, 0);
+        hasher.update(new byte[1000], 0, 1000);
+        verifier.discard(hasher);
+
+        assertTrue(verifier.verify(downloadFile, data.length));
+    }
+
+    @Test
+    public void verifyMd5() throws Exception {
+        String md5 = MD5Util.getMD5(downloadFile.getFile());
+        ChecksumVerifier verifier = new ChecksumVerifier(DownloadRequest.CHECKSUM_MD5, md5.toUpperCase());
+        //Digest can't be combined from segments,so it is never hashed while downloading.
+        assertNull(verifier.createHasher(0, 0));
+        assertNull(verifier.createHasher(1000, 0));
+        assertTrue(verifier.verify(downloadFile, data.length));
+
+        verifier = new ChecksumVerifier(DownloadRequest.CHECKSUM_MD5, md5.replace(md5.charAt(0), 'x'));
+        assertFalse(verifier.verify(downloadFile, data.length));
+        assertEquals(md5, verifier.getChecksum());
+    }
+}
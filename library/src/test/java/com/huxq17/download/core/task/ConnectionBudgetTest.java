@@ -0,0 +1,63 @@
+package com.huxq17.download.core.task;
+
+import com.huxq17.download.PumpFactory;
+import com.huxq17.download.config.DownloadConfigService;
+import com.huxq17.download.core.service.IDownloadConfigService;
+import com.huxq17.download.utils.ReflectUtil;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class ConnectionBudgetTest {
+    private static final String HOST = "budget.test";
+
+    @Before
+    public void setUp() {
+        PumpFactory.addService(IDownloadConfigService.class, ReflectUtil.newInstance(DownloadConfigService.class));
+    }
+
+    @Test
+    public void acquireWaitsUntilHostConnectionReleased() throws InterruptedException {
+        final ConnectionBudget connectionBudget = ConnectionBudget.getInstance();
+        int maxConnectionNumberPerHost = PumpFactory.getService(IDownloadConfigService.class)
+                .getMaxConnectionNumberPerHost();
+        for (int i = 0; i < maxConnectionNumberPerHost; i++) {
+            connectionBudget.acquire(HOST);
+        }
+        assertFalse(connectionBudget.tryAcquire(HOST));
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    connectionBudget.acquire(HOST);
+                    acquired.countDown();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        };
+        thread.start();
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        connectionBudget.release(HOST);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        assertEquals(maxConnectionNumberPerHost, connectionBudget.getConnectionCount(HOST));
+
+        for (int i = 0; i < maxConnectionNumberPerHost; i++) {
+            connectionBudget.release(HOST);
+        }
+        assertEquals(0, connectionBudget.getConnectionCount(HOST));
+    }
+}
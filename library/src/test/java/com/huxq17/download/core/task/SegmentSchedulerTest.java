@@ -0,0 +1,92 @@
+package com.huxq17.download.core.task;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class SegmentSchedulerTest {
+    private static final long MB = 1024 * 1024L;
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void stealLargestSegment() {
+        SegmentScheduler scheduler = new SegmentScheduler(null, 8 * MB, 2, MB);
+        Segment first = scheduler.poll();
+        Segment second = scheduler.poll();
+        assertEquals(0, first.getStart());
+        assertEquals(4 * MB, second.getStart());
+
+        second.nextReadSize(8092);
+        second.download(MB);
+        Segment stolen = scheduler.poll();
+        assertEquals(2, stolen.getId());
+        assertEquals(2 * MB, stolen.getStart());
+        assertEquals(4 * MB, stolen.getEnd());
+        assertEquals(2 * MB, first.getEnd());
+
+        Segment stolenFromSecond = scheduler.poll();
+        assertEquals(5 * MB + 3 * MB / 2, stolenFromSecond.getStart());
+        assertEquals(5 * MB + 3 * MB / 2, second.getEnd());
+        Segment segment;
+        while ((segment = scheduler.poll()) != null) {
+            assertTrue(segment.getRemaining() >= MB);
+        }
+        //Remaining of every segment is less than double of min segment size.
+        assertNull(scheduler.poll());
+    }
+
+    @Test
+    public void resumeFromRecords() throws Exception {
+        File tempDir = temporaryFolder.newFolder();
+        Segment first = new Segment(0, 0, 8 * MB, 0);
+        first.openRecord(tempDir);
+        first.download(MB);
+        first.checkpoint();
+        first.closeRecord();
+        //The first segment is split but its record is not updated.
+        Segment stolen = new Segment(1, 4 * MB, 8 * MB, 0);
+        stolen.openRecord(tempDir);
+        stolen.download(2 * MB);
+        stolen.checkpoint();
+        stolen.closeRecord();
+
+        SegmentScheduler scheduler = new SegmentScheduler(tempDir, 8 * MB, 3, MB);
+        assertEquals(3 * MB, scheduler.getCompletedSize());
+        Segment segment = scheduler.pollAt(MB);
+        assertEquals(0, segment.getId());
+        assertEquals(4 * MB, segment.getEnd());
+        assertEquals(1, scheduler.poll().getId());
+    }
+
+    @Test
+    public void overlapOfConnectedPositionAtStartOfSegment() throws Exception {
+        File tempDir = temporaryFolder.newFolder();
+        Segment first = new Segment(0, 0, 4 * MB, 0);
+        first.openRecord(tempDir);
+        first.download(4 * MB);
+        first.checkpoint();
+        first.closeRecord();
+
+        //The first part is completed,so the connection resumes at the start of the second segment.
+        SegmentScheduler scheduler = new SegmentScheduler(tempDir, 8 * MB, 2, MB);
+        Segment segment = scheduler.pollAt(4 * MB);
+        assertEquals(1, segment.getId());
+        assertEquals(segment.getStart(), segment.getPosition());
+        assertEquals(0, DownloadBlockTask.getOverlapInPart(segment, 16 * 1024));
+
+        segment.download(10);
+        assertEquals(10, DownloadBlockTask.getOverlapInPart(segment, 16 * 1024));
+    }
+}
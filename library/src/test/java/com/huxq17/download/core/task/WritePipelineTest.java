@@ -0,0 +1,104 @@
+package com.huxq17.download.core.task;
+
+import com.huxq17.download.PumpFactory;
+import com.huxq17.download.config.DownloadConfigService;
+import com.huxq17.download.core.service.IDownloadConfigService;
+import com.huxq17.download.utils.ReflectUtil;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class WritePipelineTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        PumpFactory.addService(IDownloadConfigService.class, ReflectUtil.newInstance(DownloadConfigService.class));
+    }
+
+    @Test
+    public void guessVolume() {
+        assertEquals("/storage/emulated", WritePipeline.getVolume("/storage/emulated/0/Download/a.apk"));
+        assertEquals("/storage/1234-5678", WritePipeline.getVolume("/storage/1234-5678/a.apk"));
+        assertEquals("/data", WritePipeline.getVolume("/data/user/0/com.app/cache/a.apk"));
+    }
+
+    @Test
+    public void writeSegmentsInBackground() throws IOException {
+        WritePipeline writePipeline = WritePipeline.getInstance();
+        File file = temporaryFolder.newFile("download");
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        byte[] data = new byte[5 * WritePipeline.BUFFER_SIZE + 100];
+        new Random(1).nextBytes(data);
+        String volume = WritePipeline.getVolume(file.getPath());
+        //Two segments queue their buffers alternately,like threads that download the same file.
+        WritePipeline.PendingWrites firstWrites = new WritePipeline.PendingWrites();
+        WritePipeline.PendingWrites secondWrites = new WritePipeline.PendingWrites();
+        int middle = 3 * WritePipeline.BUFFER_SIZE;
+        for (int offset = 0; offset < middle; offset += WritePipeline.BUFFER_SIZE) {
+            write(writePipeline, volume, channel, data, offset, WritePipeline.BUFFER_SIZE, firstWrites);
+            int secondOffset = middle + offset;
+            if (secondOffset < data.length) {
+                int length = Math.min(WritePipeline.BUFFER_SIZE, data.length - secondOffset);
+                write(writePipeline, volume, channel, data, secondOffset, length, secondWrites);
+            }
+        }
+        firstWrites.await();
+        secondWrites.await();
+        channel.close();
+
+        byte[] fileBytes = new byte[data.length];
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        randomAccessFile.readFully(fileBytes);
+        randomAccessFile.close();
+        assertArrayEquals(data, fileBytes);
+    }
+
+    @Test
+    public void acquireBufferReturnsNullWhenMemoryIsUsedUp() {
+        WritePipeline writePipeline = WritePipeline.getInstance();
+        long maxMemory = PumpFactory.getService(IDownloadConfigService.class).getMaxWriteBufferMemory();
+        List<byte[]> buffers = new ArrayList<>();
+        byte[] buffer;
+        while ((buffer = writePipeline.acquireBuffer()) != null) {
+            buffers.add(buffer);
+        }
+        assertEquals(maxMemory / WritePipeline.BUFFER_SIZE, buffers.size());
+
+        writePipeline.releaseBuffer(buffers.remove(0));
+        buffer = writePipeline.acquireBuffer();
+        assertNotNull(buffer);
+        buffers.add(buffer);
+        for (byte[] acquiredBuffer : buffers) {
+            writePipeline.releaseBuffer(acquiredBuffer);
+        }
+    }
+
+    private static void write(WritePipeline writePipeline, String volume, FileChannel channel, byte[] data,
+                              int offset, int length, WritePipeline.PendingWrites pendingWrites)
+            throws IOException {
+        byte[] buffer = writePipeline.acquireBuffer();
+        System.arraycopy(data, offset, buffer, 0, length);
+        writePipeline.write(volume, channel, offset, buffer, length, pendingWrites);
+    }
+}
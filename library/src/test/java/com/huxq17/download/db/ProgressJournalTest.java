@@ -0,0 +1,54 @@
+package com.huxq17.download.db;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class ProgressJournalTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void restoreLatestRecords() throws IOException {
+        File journalFile = new File(temporaryFolder.getRoot(), "journal");
+        ProgressJournal journal = new ProgressJournal(journalFile);
+        journal.record("id1", 100);
+        journal.record("id2", 200);
+        journal.record("id1", 300);
+        journal.remove("id2");
+
+        journal = new ProgressJournal(journalFile);
+        assertEquals(300, journal.get("id1"));
+        assertEquals(-1, journal.get("id2"));
+    }
+
+    @Test
+    public void ignoreBrokenRecord() throws IOException {
+        File journalFile = new File(temporaryFolder.getRoot(), "journal");
+        ProgressJournal journal = new ProgressJournal(journalFile);
+        journal.record("id1", 100);
+        //Process died while writing the record.
+        FileOutputStream outputStream = new FileOutputStream(journalFile, true);
+        outputStream.write(new byte[]{0, 3, 'i', 'd'});
+        outputStream.close();
+
+        journal = new ProgressJournal(journalFile);
+        assertEquals(100, journal.get("id1"));
+        journal.record("id2", 200);
+
+        journal = new ProgressJournal(journalFile);
+        assertEquals(100, journal.get("id1"));
+        assertEquals(200, journal.get("id2"));
+    }
+}